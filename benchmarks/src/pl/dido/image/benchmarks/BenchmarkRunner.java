@@ -0,0 +1,18 @@
+package pl.dido.image.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH with the gc profiler always enabled, so every result reports allocation rate.
+ * Accepts all standard JMH command line options.
+ */
+public class BenchmarkRunner {
+
+	public static void main(final String args[]) throws Exception {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,87 @@
+package pl.dido.image.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.atari.STConfig;
+import pl.dido.image.utils.ColorMatcher;
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Config.NEAREST_COLOR;
+import pl.dido.image.utils.Gfx;
+
+/**
+ * Nearest color of every pixel of 320x200 frame, plain palette search and color matcher
+ * with lookup table and cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColorIndexBenchmark {
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	@Param({ "EUCLIDEAN", "PERCEPTED", "LUMA_WEIGHTED" })
+	public NEAREST_COLOR color;
+
+	@Param({ "16", "512" })
+	public int colors;
+
+	private byte pixels[];
+	private int palette[][];
+	private ColorMatcher matcher;
+
+	@Setup
+	public void setup() throws Exception {
+		pixels = Images.pixels(Images.load(image, 320, 200));
+		palette = new int[colors][3];
+
+		// evenly spread levels
+		final int levels = (int) Math.round(Math.cbrt(colors));
+		for (int i = 0; i < colors; i++) {
+			palette[i][0] = ((i % levels) * 255) / (levels - 1);
+			palette[i][1] = (((i / levels) % levels) * 255) / (levels - 1);
+			palette[i][2] = (((i / levels / levels) % levels) * 255) / (levels - 1);
+		}
+
+		final Config config = new STConfig();
+		config.color_alg = color;
+
+		matcher = new ColorMatcher(palette, color, config);
+	}
+
+	@Benchmark
+	public int search() {
+		int sum = 0;
+
+		for (int i = 0; i < pixels.length; i += 3)
+			sum += Gfx.getColorIndex(color, palette, pixels[i] & 0xff, pixels[i + 1] & 0xff,
+					pixels[i + 2] & 0xff);
+
+		return sum;
+	}
+
+	@Benchmark
+	public int matcher() {
+		int sum = 0;
+
+		for (int i = 0; i < pixels.length; i += 3)
+			sum += matcher.getIndex(pixels[i] & 0xff, pixels[i + 1] & 0xff, pixels[i + 2] & 0xff);
+
+		return sum;
+	}
+}
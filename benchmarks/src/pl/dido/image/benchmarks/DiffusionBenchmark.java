@@ -0,0 +1,95 @@
+package pl.dido.image.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.amiga.Amiga1200Config;
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
+
+/**
+ * Error diffusion of 640x512 frame, sequential and wavefront. Setup fails when wavefront result
+ * differs from the sequential one. Oversubscribed runs with more processors than the machine has,
+ * wavefront should stay close to sequential there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffusionBenchmark {
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	@Param({ "STD_FS", "STUCKI" })
+	public Config.DITHERING dither;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private byte source[];
+	private byte pixels[];
+
+	private int palette[][];
+	private Amiga1200Config config;
+
+	@Setup
+	public void setup() throws Exception {
+		source = Images.pixels(Images.load(image, 640, 512));
+		pixels = new byte[source.length];
+
+		config = new Amiga1200Config();
+		config.video_mode = Amiga1200Config.VIDEO_MODE.STD_640x512;
+		config.dithering = true;
+		config.dither_alg = dither;
+
+		// 6 levels of every component
+		palette = new int[216][3];
+		int i = 0;
+
+		for (int r = 0; r < 6; r++)
+			for (int g = 0; g < 6; g++)
+				for (int b = 0; b < 6; b++) {
+					palette[i][0] = r * 51;
+					palette[i][1] = g * 51;
+					palette[i][2] = b * 51;
+
+					i++;
+				}
+
+		config.parallel = false;
+		final byte sequential[] = diffusion().clone();
+
+		config.parallel = true;
+		if (!Arrays.equals(sequential, diffusion()))
+			throw new IllegalStateException("wavefront differs from sequential diffusion");
+
+		config.parallel = parallel;
+	}
+
+	@Benchmark
+	public byte[] diffusion() {
+		System.arraycopy(source, 0, pixels, 0, source.length);
+		Gfx.dithering(pixels, palette, config);
+
+		return pixels;
+	}
+
+	@Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=64")
+	public static class Oversubscribed extends DiffusionBenchmark {
+	}
+}
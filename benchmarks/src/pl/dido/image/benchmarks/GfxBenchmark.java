@@ -0,0 +1,167 @@
+package pl.dido.image.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.atari.STConfig;
+import pl.dido.image.utils.C2P;
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
+import pl.dido.image.utils.YUV;
+
+/**
+ * Contrast enhancers, YUV conversions, dithering and chunky to planar conversion on 320x200 frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GfxBenchmark {
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	private byte source[];
+	private byte pixels[];
+	private int yuv[];
+	private byte chunky[];
+
+	private int palette[][];
+	private Config config;
+
+	@Setup
+	public void setup() throws Exception {
+		source = Images.pixels(Images.load(image, 320, 200));
+		pixels = new byte[source.length];
+		yuv = new int[source.length];
+
+		// red components as 256 color indices
+		chunky = new byte[320 * 200];
+		for (int i = 0; i < chunky.length; i++)
+			chunky[i] = source[i * 3];
+
+		config = new STConfig();
+		config.dithering = true;
+
+		// ST 512 colors
+		palette = new int[512][3];
+		int i = 0;
+
+		for (int r = 0; r < 8; r++)
+			for (int g = 0; g < 8; g++)
+				for (int b = 0; b < 8; b++) {
+					palette[i][0] = Math.round(r * 255 / 7f);
+					palette[i][1] = Math.round(g * 255 / 7f);
+					palette[i][2] = Math.round(b * 255 / 7f);
+
+					i++;
+				}
+	}
+
+	private byte[] frame() {
+		System.arraycopy(source, 0, pixels, 0, source.length);
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] he() {
+		Gfx.HE(frame());
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] clahe() {
+		Gfx.CLAHE(frame(), 8, 1, 320, 200);
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] swahe() {
+		Gfx.SWAHE(frame(), 40, 1, 320, 200);
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] yuvFloat() {
+		final int len = source.length;
+
+		for (int i = 0; i < len; i += 3)
+			Gfx.rgb2YUV(source[i] & 0xff, source[i + 1] & 0xff, source[i + 2] & 0xff, yuv, i);
+		for (int i = 0; i < len; i += 3)
+			Gfx.yuv2RGB(yuv[i], yuv[i + 1], yuv[i + 2], pixels, i);
+
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] yuvFixed() {
+		final int len = source.length;
+
+		for (int i = 0; i < len; i += 3)
+			YUV.rgb2YUV(source[i] & 0xff, source[i + 1] & 0xff, source[i + 2] & 0xff, yuv, i);
+		for (int i = 0; i < len; i += 3)
+			YUV.yuv2RGB(yuv[i], yuv[i + 1], yuv[i + 2], pixels, i);
+
+		return pixels;
+	}
+
+	// bits set one by one like renderers did before C2P
+	@Benchmark
+	public int[][] planarBits() {
+		final int bitplanes[][] = new int[20 * 200][8];
+
+		for (int y = 0; y < 200; y++)
+			for (int x = 0; x < 320; x++) {
+				final int color = chunky[y * 320 + x] & 0xff;
+				final int index = (y * 320 + x) >> 4;
+				final int shift = 15 - (x & 15);
+
+				for (int p = 0; p < 8; p++)
+					bitplanes[index][p] |= ((color >> p) & 1) << shift;
+			}
+
+		return bitplanes;
+	}
+
+	@Benchmark
+	public byte[] planarC2P() {
+		return C2P.lineInterleaved(chunky, 320, 200, 8);
+	}
+
+	@Benchmark
+	public byte[] ditheringFloydSteinberg() {
+		config.dither_alg = Config.DITHERING.STD_FS;
+		Gfx.dithering(frame(), palette, config);
+
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] ditheringAtkinson() {
+		config.dither_alg = Config.DITHERING.ATKINSON;
+		Gfx.dithering(frame(), palette, config);
+
+		return pixels;
+	}
+
+	@Benchmark
+	public byte[] ditheringStucki() {
+		config.dither_alg = Config.DITHERING.STUCKI;
+		Gfx.dithering(frame(), palette, config);
+
+		return pixels;
+	}
+}
@@ -0,0 +1,142 @@
+package pl.dido.image.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.amiga.Amiga1200Config;
+import pl.dido.image.amiga.Amiga1200Renderer;
+import pl.dido.image.amiga.Amiga500Config;
+import pl.dido.image.amiga.Amiga500Renderer;
+import pl.dido.image.amiga.AmigaConfig;
+import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.neural.HAMFixedPalette;
+
+/**
+ * HAM encoders alone (greedy or beam search) with Floyd-Steinberg dithering, base palette is
+ * trained once so random training does not hide encoder time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HAMBenchmark {
+
+	public enum MODE {
+		HAM6_320x256, HAM8_640x512;
+	}
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	@Param
+	public MODE mode;
+
+	@Param({ "false", "true" })
+	public boolean optimal;
+
+	private AmigaConfig config;
+	private int palette[][];
+
+	private BufferedImage source;
+	private BufferedImage frame;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		switch (mode) {
+		case HAM6_320x256:
+			final Amiga500Config a500 = new Amiga500Config();
+			a500.video_mode = Amiga500Config.VIDEO_MODE.HAM6_320x256;
+
+			config = a500;
+			break;
+		default:
+			final Amiga1200Config a1200 = new Amiga1200Config();
+			a1200.video_mode = Amiga1200Config.VIDEO_MODE.HAM8_640x512;
+
+			config = a1200;
+			break;
+		}
+
+		config.highContrast = Config.HIGH_CONTRAST.NONE;
+		config.dithering = true;
+		config.optimal_ham = optimal;
+
+		source = Images.load(image, config.getWidth(), config.getHeight());
+		palette = mode == MODE.HAM6_320x256 ? new HAMFixedPalette(4, 4, 4).train(Images.pixels(source))
+				: new HAMFixedPalette(8, 8, 8).train(Images.pixels(source));
+	}
+
+	// renderer works in place on the picture of the target size
+	@Setup(Level.Invocation)
+	public void frame() {
+		frame = Images.copy(source);
+	}
+
+	@Benchmark
+	public AbstractRenderer encode() {
+		final AbstractRenderer renderer = mode == MODE.HAM6_320x256 ? new HAM6(frame, config, palette)
+				: new HAM8(frame, config, palette);
+
+		renderer.imageProcess();
+		return renderer;
+	}
+
+	private static final class HAM6 extends Amiga500Renderer {
+		private final int base[][];
+
+		private HAM6(final BufferedImage image, final AmigaConfig config, final int palette[][]) {
+			super(image, config);
+			this.base = palette;
+		}
+
+		@Override
+		protected void imageDithering() {
+			// encoder only
+		}
+
+		@Override
+		protected void imagePostproces() {
+			pictureColors = base;
+
+			if (((AmigaConfig) config).optimal_ham)
+				ham6Path();
+			else
+				ham6Encoded();
+		}
+	}
+
+	private static final class HAM8 extends Amiga1200Renderer {
+		private final int base[][];
+
+		private HAM8(final BufferedImage image, final AmigaConfig config, final int palette[][]) {
+			super(image, config);
+			this.base = palette;
+		}
+
+		@Override
+		protected void imagePostproces() {
+			pictureColors = base;
+
+			if (((AmigaConfig) config).optimal_ham)
+				ham8Path();
+			else
+				ham8Encoded();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package pl.dido.image.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import pl.dido.image.utils.Gfx;
+
+/**
+ * Fixed benchmark inputs. Synthetic picture is generated from constant seed, photographic
+ * one is read from file given by retropic.image property (default ../venusAMIGA1200.png).
+ */
+public class Images {
+
+	public static final String SYNTHETIC = "synthetic";
+	public static final String PHOTO = "photo";
+
+	public static BufferedImage load(final String kind, final int width, final int height) throws IOException {
+		final BufferedImage source;
+
+		switch (kind) {
+		case SYNTHETIC:
+			source = synthetic(width, height);
+			break;
+		case PHOTO:
+			final File file = new File(System.getProperty("retropic.image", "../venusAMIGA1200.png"));
+			source = ImageIO.read(file);
+
+			if (source == null)
+				throw new IOException("Can't read " + file);
+
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown image: " + kind);
+		}
+
+		// renderers work on interleaved r, g, b bytes
+		final BufferedImage image = Gfx.rgbImage(width, height);
+		image.createGraphics().drawImage(source, 0, 0, width, height, null);
+
+		return image;
+	}
+
+	public static byte[] pixels(final BufferedImage image) {
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+
+	public static BufferedImage copy(final BufferedImage image) {
+		final BufferedImage copy = Gfx.rgbImage(image.getWidth(), image.getHeight());
+		System.arraycopy(pixels(image), 0, pixels(copy), 0, pixels(image).length);
+
+		return copy;
+	}
+
+	// smooth gradients, hard edges and noise
+	private static BufferedImage synthetic(final int width, final int height) {
+		final BufferedImage image = Gfx.rgbImage(width, height);
+		final byte pixels[] = pixels(image);
+		final Random random = new Random(0x5eed);
+
+		int i = 0;
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++) {
+				final boolean box = ((x / 40) + (y / 40)) % 3 == 0;
+				final int noise = random.nextInt(32) - 16;
+
+				final int r = box ? 220 : (x * 255) / width;
+				final int g = box ? 40 : (y * 255) / height;
+				final int b = (int) (127 + 127 * Math.sin((x + y) / 23.0));
+
+				pixels[i++] = (byte) clamp(r + noise);
+				pixels[i++] = (byte) clamp(g + noise);
+				pixels[i++] = (byte) clamp(b + noise);
+			}
+
+		return image;
+	}
+
+	private static int clamp(final int v) {
+		return v > 255 ? 255 : v < 0 ? 0 : v;
+	}
+}
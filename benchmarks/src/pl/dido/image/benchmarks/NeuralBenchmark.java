@@ -0,0 +1,96 @@
+package pl.dido.image.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.utils.Utils;
+import pl.dido.image.utils.neural.Dataset;
+import pl.dido.image.utils.neural.HL1Network;
+import pl.dido.image.utils.neural.SOMFixedPalette;
+
+/**
+ * Palette training and PETSCII character matching.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NeuralBenchmark {
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	private byte pixels[];
+
+	private HL1Network network;
+	private Dataset tiles[];
+
+	private float batch[];
+	private float result[];
+
+	@Setup
+	public void setup() throws Exception {
+		pixels = Images.pixels(Images.load(image, 320, 200));
+
+		network = new HL1Network(64, 128, 256);
+		network.load(Utils.getResourceAsStream("petscii.L1network"));
+
+		// one screen of 8x8 patterns
+		final Random random = new Random(0x5eed);
+		tiles = new Dataset[1000];
+
+		batch = new float[1000 * 64];
+		result = new float[1000 * 256];
+
+		final float tile[] = new float[64];
+		for (int i = 0; i < tiles.length; i++) {
+			for (int j = 0; j < 64; j++)
+				tile[j] = random.nextBoolean() ? 1f : 0f;
+
+			tiles[i] = new Dataset(tile);
+			System.arraycopy(tile, 0, batch, i * 64, 64);
+		}
+	}
+
+	@Benchmark
+	public int[][] som16() {
+		return new SOMFixedPalette(4, 4, 3).train(pixels); // ST
+	}
+
+	@Benchmark
+	public int[][] som32() {
+		return new SOMFixedPalette(8, 4, 5).train(pixels); // Amiga 500
+	}
+
+	@Benchmark
+	public float hl1Forward() {
+		float sum = 0;
+
+		for (final Dataset tile : tiles) {
+			network.forward(tile);
+			sum += network.getResult()[0];
+		}
+
+		return sum;
+	}
+
+	@Benchmark
+	public float hl1BatchForward() {
+		network.forward(batch, 1000, result);
+		return result[0];
+	}
+}
@@ -0,0 +1,140 @@
+package pl.dido.image.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.dido.image.amiga.Amiga1200Config;
+import pl.dido.image.amiga.Amiga1200Renderer;
+import pl.dido.image.amiga.Amiga500Config;
+import pl.dido.image.amiga.Amiga500Renderer;
+import pl.dido.image.atari.STConfig;
+import pl.dido.image.atari.STRenderer;
+import pl.dido.image.c64.C64Config;
+import pl.dido.image.c64.C64Renderer;
+import pl.dido.image.cpc.CPCConfig;
+import pl.dido.image.cpc.CPCRenderer;
+import pl.dido.image.petscii.PetsciiConfig;
+import pl.dido.image.petscii.PetsciiRenderer;
+import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.Config;
+import pl.dido.image.zx.ZXConfig;
+import pl.dido.image.zx.ZXSpectrumRenderer;
+
+/**
+ * Whole conversion of one picture, renderer defaults with Floyd-Steinberg dithering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RendererBenchmark {
+
+	public enum TARGET {
+		C64_HIRES, C64_MULTICOLOR, PETSCII, ZX, CPC_MODE0, CPC_MODE1, ST, A500_STD, A500_HAM6, A1200_STD, A1200_HAM8;
+	}
+
+	@Param({ Images.SYNTHETIC, Images.PHOTO })
+	public String image;
+
+	@Param
+	public TARGET target;
+
+	private Config config;
+	private BufferedImage source;
+	private BufferedImage frame;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		config = config(target);
+		config.dithering = true;
+
+		source = Images.load(image, config.getWidth(), config.getHeight());
+	}
+
+	// renderer works in place on the picture of the target size
+	@Setup(Level.Invocation)
+	public void frame() {
+		frame = Images.copy(source);
+	}
+
+	private static Config config(final TARGET target) {
+		switch (target) {
+		case C64_HIRES:
+		case C64_MULTICOLOR:
+			final C64Config c64 = new C64Config();
+			c64.screen_mode = target == TARGET.C64_HIRES ? C64Config.SCREEN_MODE.HIRES : C64Config.SCREEN_MODE.MULTICOLOR;
+
+			return c64;
+		case PETSCII:
+			return new PetsciiConfig();
+		case ZX:
+			return new ZXConfig();
+		case CPC_MODE0:
+		case CPC_MODE1:
+			final CPCConfig cpc = new CPCConfig();
+			cpc.screen_mode = target == TARGET.CPC_MODE0 ? CPCConfig.SCREEN_MODE.MODE0 : CPCConfig.SCREEN_MODE.MODE1;
+
+			return cpc;
+		case ST:
+			return new STConfig();
+		case A500_STD:
+		case A500_HAM6:
+			final Amiga500Config a500 = new Amiga500Config();
+			a500.video_mode = target == TARGET.A500_STD ? Amiga500Config.VIDEO_MODE.STD_320x256
+					: Amiga500Config.VIDEO_MODE.HAM6_320x256;
+
+			return a500;
+		default:
+			final Amiga1200Config a1200 = new Amiga1200Config();
+			a1200.video_mode = target == TARGET.A1200_STD ? Amiga1200Config.VIDEO_MODE.STD_320x256
+					: Amiga1200Config.VIDEO_MODE.HAM8_320x256;
+
+			return a1200;
+		}
+	}
+
+	private AbstractRenderer renderer() {
+		switch (target) {
+		case C64_HIRES:
+		case C64_MULTICOLOR:
+			return new C64Renderer(frame, (C64Config) config);
+		case PETSCII:
+			return new PetsciiRenderer(frame, (PetsciiConfig) config);
+		case ZX:
+			return new ZXSpectrumRenderer(frame, (ZXConfig) config);
+		case CPC_MODE0:
+		case CPC_MODE1:
+			return new CPCRenderer(frame, (CPCConfig) config);
+		case ST:
+			return new STRenderer(frame, config);
+		case A500_STD:
+		case A500_HAM6:
+			return new Amiga500Renderer(frame, config);
+		default:
+			return new Amiga1200Renderer(frame, config);
+		}
+	}
+
+	@Benchmark
+	public AbstractRenderer imageProcess() {
+		final AbstractRenderer renderer = renderer();
+		renderer.imageProcess();
+
+		return renderer;
+	}
+}
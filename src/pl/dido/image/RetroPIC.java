@@ -222,37 +222,35 @@ public class RetroPIC {
 			final BufferedImage img = ImageIO.read(selectedFile);
 			final String fileName = selectedFile.getName();
 
-			switch (img.getType()) {
-			case BufferedImage.TYPE_3BYTE_BGR:
-			case BufferedImage.TYPE_INT_RGB:
-				switch (selectedTab) {
-				case 0:
-					new Thread(new C64Runner(new C64Renderer(img, c64Config), fileName)).start();
-					break;
-				case 1:
-					new Thread(new PetsciiRunner(new PetsciiRenderer(img, petsciiConfig), fileName)).start();
-					break;
-				case 2:
-					new Thread(new ZXRunner(new ZXSpectrumRenderer(img, zxConfig), fileName)).start();
-					break;
-				case 3:
-					new Thread(new CPCRunner(new CPCRenderer(img, cpcConfig), fileName)).start();
-					break;
-				case 4:
-					new Thread(new STRunner(new STRenderer(img, stConfig), fileName)).start();
-					break;
-				case 5:
-					new Thread(new Amiga500Runner(new Amiga500Renderer(img, amiga500Config), fileName)).start();
-					break;
-				case 6:
-					new Thread(new Amiga1200Runner(new Amiga1200Renderer(img, amiga1200Config), fileName)).start();
-					break;
-				}
-				break;
-			default:
+			// renderers convert any pixel format
+			if (img == null) {
 				JOptionPane.showMessageDialog(null, "ERROR", "Unsupported pixel format !!!", JOptionPane.ERROR_MESSAGE);
+				return;
 			}
 
+			switch (selectedTab) {
+			case 0:
+				new Thread(new C64Runner(new C64Renderer(img, c64Config), fileName)).start();
+				break;
+			case 1:
+				new Thread(new PetsciiRunner(new PetsciiRenderer(img, petsciiConfig), fileName)).start();
+				break;
+			case 2:
+				new Thread(new ZXRunner(new ZXSpectrumRenderer(img, zxConfig), fileName)).start();
+				break;
+			case 3:
+				new Thread(new CPCRunner(new CPCRenderer(img, cpcConfig), fileName)).start();
+				break;
+			case 4:
+				new Thread(new STRunner(new STRenderer(img, stConfig), fileName)).start();
+				break;
+			case 5:
+				new Thread(new Amiga500Runner(new Amiga500Renderer(img, amiga500Config), fileName)).start();
+				break;
+			case 6:
+				new Thread(new Amiga1200Runner(new Amiga1200Renderer(img, amiga1200Config), fileName)).start();
+				break;
+			}
 		} catch (final IOException e) {
 			JOptionPane.showMessageDialog(null, "ERROR", "Can't read selected file !!!", JOptionPane.ERROR_MESSAGE);
 			e.printStackTrace();
@@ -0,0 +1,478 @@
+package pl.dido.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import pl.dido.image.amiga.Amiga1200Config;
+import pl.dido.image.amiga.Amiga1200Renderer;
+import pl.dido.image.amiga.Amiga1200Runner;
+import pl.dido.image.amiga.Amiga500Config;
+import pl.dido.image.amiga.Amiga500Renderer;
+import pl.dido.image.amiga.Amiga500Runner;
+import pl.dido.image.amiga.AmigaConfig;
+import pl.dido.image.atari.STConfig;
+import pl.dido.image.atari.STRenderer;
+import pl.dido.image.atari.STRunner;
+import pl.dido.image.c64.C64Config;
+import pl.dido.image.c64.C64Renderer;
+import pl.dido.image.c64.C64Runner;
+import pl.dido.image.cpc.CPCConfig;
+import pl.dido.image.cpc.CPCRenderer;
+import pl.dido.image.cpc.CPCRunner;
+import pl.dido.image.petscii.PetsciiConfig;
+import pl.dido.image.petscii.PetsciiRenderer;
+import pl.dido.image.petscii.PetsciiRunner;
+import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.ILBMReader;
+import pl.dido.image.zx.ZXConfig;
+import pl.dido.image.zx.ZXRunner;
+import pl.dido.image.zx.ZXSpectrumRenderer;
+
+/**
+ * Headless batch converter, converts every picture found in the input directory
+ * without opening any window.
+ *
+ * Usage: java -cp retropic.jar pl.dido.image.RetroPICBatch input_dir machine[:mode] output_dir [options]
+ */
+public class RetroPICBatch {
+
+	public enum MACHINE {
+		C64, PETSCII, ZX, CPC, ST, A500, A1200;
+	}
+
+	protected final MACHINE machine;
+	protected final Config config;
+
+	protected final File inputDir;
+	protected final File outputDir;
+
+	protected boolean executable = false;
+	protected boolean verify = false;
+	protected int threads = Runtime.getRuntime().availableProcessors();
+
+	protected final AtomicInteger converted = new AtomicInteger();
+	protected final AtomicInteger failed = new AtomicInteger();
+
+	protected final AtomicInteger verified = new AtomicInteger();
+	protected final AtomicInteger different = new AtomicInteger();
+
+	protected final AtomicLong cacheHits = new AtomicLong();
+	protected final AtomicLong cacheMisses = new AtomicLong();
+
+	public static void main(final String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		if (args.length < 3) {
+			usage();
+			System.exit(1);
+		}
+
+		try {
+			final RetroPICBatch batch = new RetroPICBatch(new File(args[0]), args[1], new File(args[2]));
+			batch.parseOptions(args, 3);
+
+			System.exit(batch.run() ? 0 : 2);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+
+			System.exit(1);
+		}
+	}
+
+	protected static void usage() {
+		System.err.println("Usage: RetroPICBatch input_dir machine[:mode] output_dir [options]");
+		System.err.println();
+		System.err.println("machines: c64[:HIRES|MULTICOLOR], petscii[:L1|L2|HAMMING], zx, cpc[:MODE0|MODE1], st,");
+		System.err.println("          a500[:STD_320x256|HAM6_320x256|STD_320x512|HAM6_320x512],");
+		System.err.println("          a1200[:STD_320x256|HAM8_320x256|STD_320x512|HAM8_320x512|STD_640x512|HAM8_640x512]");
+		System.err.println();
+		System.err.println("options:  -dither NONE|STD_FS|ATKINSON|JJN|STUCKI|SIERRA|BURKES|BAYER2|BAYER4|BAYER8|BLUE_NOISE");
+		System.err.println("          -color EUCLIDEAN|PERCEPTED|LUMA_WEIGHTED");
+		System.err.println("          -contrast NONE|HE|CLAHE|SWAHE");
+		System.err.println("          -window 20|30|40, -details 1..5");
+		System.err.println("          -aspect (keep aspect ratio), -rle (Amiga IFF compression)");
+		System.err.println("          -prg (C64 executable instead of picture)");
+		System.err.println("          -optimal (C64 hires and ZX cell colors by exhaustive search, Amiga HAM rows by beam search)");
+		System.err.println("          -verify (read every export back and compare it with rendered picture)");
+		System.err.println("          -lut bits (nearest color table bits 1-8, 0 - disabled)");
+		System.err.println("          -cache bits (color cache sets 5-12, 0 - disabled)");
+		System.err.println("          -threads n (default number of cores)");
+	}
+
+	public RetroPICBatch(final File inputDir, final String machineMode, final File outputDir) {
+		this.inputDir = inputDir;
+		this.outputDir = outputDir;
+
+		final String spec[] = machineMode.split(":", 2);
+		machine = valueOf(MACHINE.class, spec[0]);
+
+		config = createConfig(machine, spec.length > 1 ? spec[1] : null);
+	}
+
+	protected static <T extends Enum<T>> T valueOf(final Class<T> type, final String name) {
+		for (final T value : type.getEnumConstants())
+			if (value.name().equalsIgnoreCase(name))
+				return value;
+
+		throw new IllegalArgumentException("Unknown " + type.getSimpleName() + " value: " + name);
+	}
+
+	protected static Config createConfig(final MACHINE machine, final String mode) {
+		switch (machine) {
+		case C64:
+			final C64Config c64 = new C64Config();
+			if (mode != null)
+				c64.screen_mode = valueOf(C64Config.SCREEN_MODE.class, mode);
+
+			return c64;
+		case PETSCII:
+			final PetsciiConfig petscii = new PetsciiConfig();
+			if (mode != null)
+				petscii.network = valueOf(PetsciiConfig.NETWORK.class, mode);
+
+			return petscii;
+		case ZX:
+			return new ZXConfig();
+		case CPC:
+			final CPCConfig cpc = new CPCConfig();
+			if (mode != null)
+				cpc.screen_mode = valueOf(CPCConfig.SCREEN_MODE.class, mode);
+
+			return cpc;
+		case ST:
+			return new STConfig();
+		case A500:
+			final Amiga500Config a500 = new Amiga500Config();
+			if (mode != null)
+				a500.video_mode = valueOf(Amiga500Config.VIDEO_MODE.class, mode);
+
+			return a500;
+		case A1200:
+			final Amiga1200Config a1200 = new Amiga1200Config();
+			if (mode != null)
+				a1200.video_mode = valueOf(Amiga1200Config.VIDEO_MODE.class, mode);
+
+			return a1200;
+		default:
+			throw new IllegalArgumentException("Unsupported machine: " + machine);
+		}
+	}
+
+	protected void parseOptions(final String args[], final int start) {
+		for (int i = start; i < args.length; i++) {
+			final String option = args[i].toLowerCase(Locale.ROOT);
+
+			switch (option) {
+			case "-dither":
+				final String dither = argument(args, ++i);
+				if ("none".equalsIgnoreCase(dither))
+					config.dithering = false;
+				else {
+					config.dithering = true;
+					config.dither_alg = valueOf(Config.DITHERING.class, dither);
+				}
+				break;
+			case "-color":
+				config.color_alg = valueOf(Config.NEAREST_COLOR.class, argument(args, ++i));
+				break;
+			case "-contrast":
+				config.highContrast = valueOf(Config.HIGH_CONTRAST.class, argument(args, ++i));
+				break;
+			case "-window":
+				config.windowSize = number(args, ++i);
+				break;
+			case "-details":
+				config.details = number(args, ++i);
+				break;
+			case "-aspect":
+				config.keepAspect = true;
+				break;
+			case "-rle":
+				if (config instanceof AmigaConfig)
+					((AmigaConfig) config).rleCompress = true;
+				break;
+			case "-optimal":
+				if (config instanceof C64Config)
+					((C64Config) config).optimal_pair = true;
+				else if (config instanceof ZXConfig)
+					((ZXConfig) config).optimal_pair = true;
+				else if (config instanceof AmigaConfig)
+					((AmigaConfig) config).optimal_ham = true;
+				break;
+			case "-prg":
+				executable = true;
+				break;
+			case "-verify":
+				verify = true;
+				break;
+			case "-lut":
+				config.lut_bits = bits(args, ++i, 1, 8);
+				break;
+			case "-cache":
+				config.cache_bits = bits(args, ++i, 5, 12);
+				break;
+			case "-threads":
+				threads = Math.max(1, number(args, ++i));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+	}
+
+	private static String argument(final String args[], final int i) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+
+		return args[i];
+	}
+
+	private static int number(final String args[], final int i) {
+		try {
+			return Integer.parseInt(argument(args, i));
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + args[i]);
+		}
+	}
+
+	// 0 disables, anything else must fit min - max
+	private static int bits(final String args[], final int i, final int min, final int max) {
+		final int bits = number(args, i);
+		if (bits != 0 && (bits < min || bits > max))
+			throw new IllegalArgumentException("Unsupported " + args[i - 1] + " value: " + bits);
+
+		return bits;
+	}
+
+	public boolean run() {
+		// pictures are converted in parallel already
+		if (threads > 1)
+			config.parallel = false;
+
+		final File files[] = inputDir.listFiles();
+		if (files == null) {
+			System.err.println("Can't read input directory " + inputDir);
+			return false;
+		}
+
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Can't create output directory " + outputDir);
+			return false;
+		}
+
+		// bounded queue keeps only a few decoded pictures in memory at once
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		final long start = System.nanoTime();
+
+		for (final File file : files)
+			if (file.isFile() && isPicture(file.getName()))
+				pool.execute(new Runnable() {
+					public void run() {
+						convert(file);
+					}
+				});
+
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} catch (final InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		final int count = converted.get();
+
+		System.out.println(String.format(Locale.ROOT, "%s %s: %d converted, %d failed in %.2f s, %.2f images/sec using %d threads",
+				machine, config.getConfigString().trim(), count, failed.get(), seconds, seconds > 0 ? count / seconds : 0, threads));
+
+		if (verify)
+			System.out.println(String.format(Locale.ROOT, "verify: %d exports read back, %d differ from rendered pictures",
+					verified.get(), different.get()));
+
+		final long hits = cacheHits.get();
+		final long lookups = hits + cacheMisses.get();
+
+		if (lookups > 0)
+			System.out.println(String.format(Locale.ROOT, "color cache: %d hits, %d misses, %.1f%% hit ratio", hits,
+					lookups - hits, hits * 100.0 / lookups));
+
+		if (machine == MACHINE.PETSCII) {
+			final long patternHits = PetsciiRenderer.getPatternHits();
+			final long patterns = patternHits + PetsciiRenderer.getPatternMisses();
+
+			if (patterns > 0)
+				System.out.println(String.format(Locale.ROOT, "pattern cache: %d hits, %d misses, %.1f%% hit ratio",
+						patternHits, patterns - patternHits, patternHits * 100.0 / patterns));
+		}
+
+		return failed.get() == 0 && different.get() == 0;
+	}
+
+	protected static boolean isPicture(final String fileName) {
+		final String name = fileName.toLowerCase(Locale.ROOT);
+		return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+	}
+
+	protected void convert(final File file) {
+		try {
+			final BufferedImage img = ImageIO.read(file);
+			if (img == null)
+				throw new IOException("Unsupported picture");
+
+			final AbstractRenderer renderer = createRenderer(img);
+			renderer.imageProcess();
+
+			cacheHits.addAndGet(renderer.getCacheHits());
+			cacheMisses.addAndGet(renderer.getCacheMisses());
+
+			String name = file.getName();
+			name = name.substring(0, name.lastIndexOf('.'));
+
+			export(renderer, outputDir.getPath() + File.separator, name);
+			converted.incrementAndGet();
+
+			if (verify)
+				verify(renderer, outputDir.getPath() + File.separator, name);
+		} catch (final Exception e) {
+			failed.incrementAndGet();
+			System.err.println(file.getName() + ": " + e);
+		}
+	}
+
+	protected AbstractRenderer createRenderer(final BufferedImage img) {
+		switch (machine) {
+		case C64:
+			return new C64Renderer(img, (C64Config) config);
+		case PETSCII:
+			return new PetsciiRenderer(img, (PetsciiConfig) config);
+		case ZX:
+			return new ZXSpectrumRenderer(img, (ZXConfig) config);
+		case CPC:
+			return new CPCRenderer(img, (CPCConfig) config);
+		case ST:
+			return new STRenderer(img, config);
+		case A500:
+			return new Amiga500Renderer(img, config);
+		case A1200:
+			return new Amiga1200Renderer(img, config);
+		default:
+			throw new IllegalArgumentException("Unsupported machine: " + machine);
+		}
+	}
+
+	protected void export(final AbstractRenderer renderer, final String path, final String name) throws IOException {
+		switch (machine) {
+		case C64:
+			final C64Renderer c64 = (C64Renderer) renderer;
+
+			switch (((C64Config) config).screen_mode) {
+			case HIRES:
+				if (executable)
+					C64Runner.hiresExportPRG(c64, path + name + ".prg");
+				else
+					C64Runner.hiresExport(c64, path + name + ".art");
+				break;
+			case MULTICOLOR:
+				if (executable)
+					C64Runner.lowresExportPRG(c64, path + name + ".prg");
+				else
+					C64Runner.lowresExport(c64, path + name + ".koa");
+				break;
+			}
+			break;
+		case PETSCII:
+			PetsciiRunner.petsciiExportPRG((PetsciiRenderer) renderer, path + name + ".prg");
+			break;
+		case ZX:
+			ZXRunner.hiresExport((ZXSpectrumRenderer) renderer, path + name + ".scr");
+			break;
+		case CPC:
+			CPCRunner.exportArtStudio((CPCRenderer) renderer, path, name,
+					((CPCConfig) config).screen_mode == CPCConfig.SCREEN_MODE.MODE0 ? 0 : 1);
+			break;
+		case ST:
+			STRunner.exportDegas((STRenderer) renderer, path + name + ".PI1");
+			break;
+		case A500:
+			Amiga500Runner.exportIFF((Amiga500Renderer) renderer, path + name + ".iff");
+			break;
+		case A1200:
+			Amiga1200Runner.exportIFF((Amiga1200Renderer) renderer, path + name + ".iff");
+			break;
+		}
+	}
+
+	protected BufferedImage load(final String path, final String name) throws IOException {
+		switch (machine) {
+		case C64:
+			switch (((C64Config) config).screen_mode) {
+			case HIRES:
+				return C64Runner.hiresImport(path + name + (executable ? ".prg" : ".art"));
+			default:
+				return C64Runner.lowresImport(path + name + (executable ? ".prg" : ".koa"));
+			}
+		case PETSCII:
+			return PetsciiRunner.petsciiImportPRG(path + name + ".prg");
+		case ZX:
+			return ZXRunner.hiresImport(path + name + ".scr");
+		case CPC:
+			return CPCRunner.importArtStudio(path, name);
+		case ST:
+			return STRunner.importDegas(path + name + ".PI1");
+		default:
+			return ILBMReader.read(path + name + ".iff");
+		}
+	}
+
+	// export read back has to show the same pixels as rendered picture
+	protected void verify(final AbstractRenderer renderer, final String path, final String name) throws IOException {
+		final BufferedImage rendered = renderer.getImage();
+		final BufferedImage loaded = load(path, name);
+
+		verified.incrementAndGet();
+
+		if (loaded.getWidth() != rendered.getWidth() || loaded.getHeight() != rendered.getHeight()) {
+			different.incrementAndGet();
+			System.err.println(name + ": exported " + loaded.getWidth() + "x" + loaded.getHeight() + " instead of "
+					+ rendered.getWidth() + "x" + rendered.getHeight());
+
+			return;
+		}
+
+		final byte expected[] = ((DataBufferByte) rendered.getRaster().getDataBuffer()).getData();
+		final byte actual[] = ((DataBufferByte) loaded.getRaster().getDataBuffer()).getData();
+
+		int count = 0, max = 0;
+		for (int i = 0; i < expected.length; i += 3) {
+			final int error = Math.max(Math.abs((expected[i] & 0xff) - (actual[i] & 0xff)),
+					Math.max(Math.abs((expected[i + 1] & 0xff) - (actual[i + 1] & 0xff)),
+							Math.abs((expected[i + 2] & 0xff) - (actual[i + 2] & 0xff))));
+
+			if (error > 0) {
+				count++;
+				max = Math.max(max, error);
+			}
+		}
+
+		if (count > 0) {
+			different.incrementAndGet();
+			System.err.println(name + ": " + count + " pixels differ, max error " + max);
+		}
+	}
+}
@@ -3,14 +3,40 @@ package pl.dido.image.amiga;
 import java.awt.image.BufferedImage;
 
 import pl.dido.image.renderer.AbstractPictureColorsRenderer;
+import pl.dido.image.utils.C2P;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.ErrorDiffusion;
 import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.neural.HAMFixedPalette;
 import pl.dido.image.utils.neural.SOMFixedPalette;
 
 public class Amiga1200Renderer extends AbstractPictureColorsRenderer {
 
-	protected int bitplanes[][];
+	protected byte bitplanes[]; // planar ILBM body
+
+	// component value of every HAM level
+	private static final int steps[] = new int[64];
+
+	// nearest of 64 HAM levels for every component value, lower level wins a tie
+	private static final int levels[] = new int[256];
+
+	static {
+		for (int i = 0; i < 64; i++)
+			steps[i] = (i << 2) | (i >> 4); // scaled color, top bits repeated like AGA
+
+		for (int c = 0; c < 256; c++) {
+			int min = Integer.MAX_VALUE;
+
+			for (int i = 0; i < 64; i++) {
+				final int d = Math.abs(c - steps[i]);
+
+				if (d < min) {
+					min = d;
+					levels[c] = steps[i];
+				}
+			}
+		}
+	}
 
 	public Amiga1200Renderer(final BufferedImage image, final Config config) {
 		super(image, config);
@@ -38,7 +64,11 @@ public class Amiga1200Renderer extends AbstractPictureColorsRenderer {
 			training = new HAMFixedPalette(8, 8, 8); // 4x4 = 16 colors (4 bits)
 			pictureColors = training.train(pixels);
 
-			ham8Encoded();
+			if (((AmigaConfig) config).optimal_ham)
+				ham8Path();
+			else
+				ham8Encoded();
+
 			break;
 		case STD_320x256:
 		case STD_320x512:
@@ -52,202 +82,52 @@ public class Amiga1200Renderer extends AbstractPictureColorsRenderer {
 	}
 
 	protected void standard256() {
-		final int[] work = Gfx.copy2Int(pixels);
-		bitplanes = new int[(width >> 4) * height][8]; // 8 planes
-
-		int r0, g0, b0;
-
-		final int width3 = width * 3;
-		int index = 0, shift = 15; // 16
-
-		for (int y = 0; y < height; y++) {
-			final int k = y * width3;
-			final int k1 = (y + 1) * width3;
-			final int k2 = ((y + 2) * width3);
-
-			for (int x = 0; x < width3; x += 3) {
-				final int pyx = k + x;
-				final int py1x = k1 + x;
-				final int py2x = k2 + x;
-
-				r0 = Gfx.saturate(work[pyx]);
-				g0 = Gfx.saturate(work[pyx + 1]);
-				b0 = Gfx.saturate(work[pyx + 2]);
-
-				final int color = Gfx.getColorIndex(colorAlg, colorModel, pictureColors, r0, g0, b0); // 256 colors
-				final int c[] = pictureColors[color];
-
-				final int r = c[0];
-				final int g = c[1];
-				final int b = c[2];
-
-				pixels[pyx] = (byte) r;
-				pixels[pyx + 1] = (byte) g;
-				pixels[pyx + 2] = (byte) b;
-
-				bitplanes[index][7] |= ((color & 128) >> 7) << shift;
-				bitplanes[index][6] |= ((color & 64) >> 6) << shift;
-				bitplanes[index][5] |= ((color & 32) >> 5) << shift;
-				bitplanes[index][4] |= ((color & 16) >> 4) << shift;
-				bitplanes[index][3] |= ((color & 8) >> 3) << shift;
-				bitplanes[index][2] |= ((color & 4) >> 2) << shift;
-				bitplanes[index][1] |= ((color & 2) >> 1) << shift;
-				bitplanes[index][0] |= (color & 1) << shift;
-
-				if (shift == 0) {
-					shift = 15;
-					index += 1; // 8 planes
-				} else
-					shift--;
-
-				if (config.dithering) {
-					final int r_error = r0 - r;
-					final int g_error = g0 - g;
-					final int b_error = b0 - b;
-
-					switch (config.dither_alg) {
-					case STD_FS:
-						if (x < (width - 1) * 3) {
-							work[pyx + 3] += (r_error * 7) / 16;
-							work[pyx + 3 + 1] += (g_error * 7) / 16;
-							work[pyx + 3 + 2] += (b_error * 7) / 16;
-						}
-						if (y < height - 1) {
-							work[py1x - 3] += (r_error * 3) / 16;
-							work[py1x - 3 + 1] += (g_error * 3) / 16;
-							work[py1x - 3 + 2] += (b_error * 3) / 16;
-
-							work[py1x] += (r_error * 5) / 16;
-							work[py1x + 1] += (g_error * 5) / 16;
-							work[py1x + 2] += (b_error * 5) / 16;
-
-							if (x < (width - 1) * 3) {
-								work[py1x + 3] += r_error / 16;
-								work[py1x + 3 + 1] += g_error / 16;
-								work[py1x + 3 + 2] += b_error / 16;
-							}
-						}
-						break;
-					case ATKINSON:
-						if (x < (width - 1) * 3) {
-							work[pyx + 3] += r_error >> 3;
-							work[pyx + 3 + 1] += g_error >> 3;
-							work[pyx + 3 + 2] += b_error >> 3;
-
-							if (x < (width - 2) * 3) {
-								work[pyx + 6] += r_error >> 3;
-								work[pyx + 6 + 1] += g_error >> 3;
-								work[pyx + 6 + 2] += b_error >> 3;
-							}
-						}
-						if (y < height - 1) {
-							work[py1x - 3] += r_error >> 3;
-							work[py1x - 3 + 1] += g_error >> 3;
-							work[py1x - 3 + 2] += b_error >> 3;
-
-							work[py1x] += r_error >> 3;
-							work[py1x + 1] += g_error >> 3;
-							work[py1x + 2] += b_error >> 3;
-
-							if (x < (width - 1) * 3) {
-								work[py1x + 3] += r_error >> 3;
-								work[py1x + 3 + 1] += g_error >> 3;
-								work[py1x + 3 + 2] += b_error >> 3;
-							}
-
-							if (y < height - 2) {
-								work[py2x] += r_error >> 3;
-								work[py2x + 1] += g_error >> 3;
-								work[py2x + 2] += b_error >> 3;
-							}
-						}
-						break;
-					}
-				}
-			}
-		}
-	}
+		final byte chunky[] = new byte[width * height]; // palette index of every pixel
 
-	protected void ham8Encoded() {
-		final float[] work = Gfx.copy2float(pixels);
-		bitplanes = new int[(width >> 4) * height][8]; // 8 planes
+		new ErrorDiffusion(config, pictureColors, width, height).dither(pixels, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				final int color = getColorIndex(pictureColors, r, g, b); // 256 colors
 
-		int r0, g0, b0, r = 0, g = 0, b = 0;
-		final int width3 = width * 3;
+				chunky[y * width + x] = (byte) color;
 
-		int index = 0, shift = 15; // WORD
-		int modifyRed, modifyBlue;
+				return ErrorDiffusion.color(pictureColors[color]);
+			}
+		});
 
-		switch (image.getType()) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			modifyRed  = 0b01000000;
-			modifyBlue = 0b10000000;
-			break;
-		default:
-			modifyRed  = 0b10000000;
-			modifyBlue = 0b01000000;
-			break;
-		}
+		bitplanes = C2P.lineInterleaved(chunky, width, height, 8); // 8 planes
+	}
+
+	protected void ham8Encoded() {
+		final byte chunky[] = new byte[width * height]; // palette index or HAM code of every pixel
 
-		for (int y = 0; y < height; y++) {
-			boolean nextPixel = false;
-			final int k = y * width3;
-			
-			final int k1 = (y + 1) * width3;
-			final int k2 = (y + 2) * width3;
+		// hold and modify control bits
+		final int modifyRed = 0b10000000;
+		final int modifyBlue = 0b01000000;
 
-			for (int x = 0; x < width3; x += 3) {
-				final int pyx = k + x;
-				final int py1x = k1 + x;
-				
-				final int py2x = k2 + x;
+		new ErrorDiffusion(config, pictureColors, width, height).dither(pixels, new ErrorDiffusion.Quantizer() {
+			private final int held[] = new int[height]; // color of previous pixel in every row
 
-				// get picture RGB components
-				r0 = Gfx.saturate((int) work[pyx]);
-				g0 = Gfx.saturate((int) work[pyx + 1]);
-				b0 = Gfx.saturate((int) work[pyx + 2]);
+			public int quantize(final int x, final int y, final int r0, final int g0, final int b0) {
+				int r = (held[y] >> 16) & 0xff;
+				int g = (held[y] >> 8) & 0xff;
+				int b = held[y] & 0xff;
 
 				// find closest palette color
-				int action = Gfx.getColorIndex(colorAlg, colorModel, pictureColors, r0, g0, b0); // 64 color palette
+				int action = getColorIndex(pictureColors, r0, g0, b0); // 64 color palette
 				final int pc[] = pictureColors[action];
 
-				if (nextPixel) { // it's not first pixel in a row so use best matching color
+				if (x > 0) { // it's not first pixel in a row so use best matching color
 					// distance to palette match
-					final float dpc = Gfx.getDistanceByCM(colorAlg, colorModel, r0, g0, b0, pc[0], pc[1], pc[2]);
-
-					float min_r = Float.MAX_VALUE; // minimum red
-					float min_g = min_r;
-					float min_b = min_r;
-
-					int ri = -1;
-					int gi = -1;
-					int bi = -1;
-
-					// calculate all color change possibilities and measure distances
-					for (int i = 0; i < 64; i++) {
-						// scaled color
-						final int scaled = (int)(i * 4.048f);
+					final float dpc = Gfx.getDistance(colorAlg, r0, g0, b0, pc[0], pc[1], pc[2]);
 
-						// which component change gets minimum error?
-						final float dr = Gfx.getDistanceByCM(colorAlg, colorModel, r0, g0, b0, scaled, g, b);
-						final float dg = Gfx.getDistanceByCM(colorAlg, colorModel, r0, g0, b0, r, scaled, b);
-						final float db = Gfx.getDistanceByCM(colorAlg, colorModel, r0, g0, b0, r, g, scaled);
+					// every metric is separable, nearest level of changed component gives least distance
+					final int ri = levels[r0];
+					final int gi = levels[g0];
+					final int bi = levels[b0];
 
-						if (dr < min_r) {
-							ri = scaled;
-							min_r = dr;
-						}
-
-						if (dg < min_g) {
-							gi = scaled;
-							min_g = dg;
-						}
-
-						if (db < min_b) {
-							bi = scaled;
-							min_b = db;
-						}
-					}
+					final float min_r = Gfx.getDistance(colorAlg, r0, g0, b0, ri, g, b);
+					final float min_g = Gfx.getDistance(colorAlg, r0, g0, b0, r, gi, b);
+					final float min_b = Gfx.getDistance(colorAlg, r0, g0, b0, r, g, bi);
 
 					final float ham = Gfx.min(min_r, min_g, min_b);
 
@@ -273,97 +153,23 @@ public class Amiga1200Renderer extends AbstractPictureColorsRenderer {
 						b = pc[2];
 					}
 				} else {
-					nextPixel = true;
 					r = pc[0];
 					g = pc[1];
 					b = pc[2];
 				}
 
-				bitplanes[index][7] |= ((action & 128) >> 7) << shift;
-				bitplanes[index][6] |= ((action & 64) >> 6) << shift;
-
-				bitplanes[index][5] |= ((action & 32) >> 5) << shift;
-				bitplanes[index][4] |= ((action & 16) >> 4) << shift;
-				
-				bitplanes[index][3] |= ((action & 8) >> 3) << shift;
-				bitplanes[index][2] |= ((action & 4) >> 2) << shift;
-				
-				bitplanes[index][1] |= ((action & 2) >> 1) << shift;
-				bitplanes[index][0] |= (action & 1) << shift;
-				
-				if (shift == 0) {
-					shift = 15; // WORD
-					index += 1;
-				} else
-					shift--;
-
-				pixels[pyx] = (byte) r;
-				pixels[pyx + 1] = (byte) g;
-				pixels[pyx + 2] = (byte) b;
-				
-				float r_error = r0 - r;
-				float g_error = g0 - g;
-				float b_error = b0 - b;
-				
-				switch (config.dither_alg) {
-				case STD_FS:
-					if (x < (width - 1) * 3) {
-						work[pyx + 3]     += r_error * 7 / 16;
-						work[pyx + 3 + 1] += g_error * 7 / 16;
-						work[pyx + 3 + 2] += b_error * 7 / 16;
-					}
-					if (y < height - 1) {
-						work[py1x - 3]     += r_error * 3 / 16;
-						work[py1x - 3 + 1] += g_error * 3 / 16;
-						work[py1x - 3 + 2] += b_error * 3 / 16;
-
-						work[py1x]     += r_error * 5 / 16;
-						work[py1x + 1] += g_error * 5 / 16;
-						work[py1x + 2] += b_error * 5 / 16;
-
-						if (x < (width - 1) * 3) {
-							work[py1x + 3]     += r_error / 16;
-							work[py1x + 3 + 1] += g_error / 16;
-							work[py1x + 3 + 2] += b_error / 16;
-						}
-					}							
-					break;
-				case ATKINSON:
-					if (x < (width - 1) * 3) {
-						work[pyx + 3]     += r_error * 1 / 8;
-						work[pyx + 3 + 1] += g_error * 1 / 8;
-						work[pyx + 3 + 2] += b_error * 1 / 8;
-						
-						if (x < (width - 2) * 3) {
-							work[pyx + 6]     += r_error * 1 / 8;
-							work[pyx + 6 + 1] += g_error * 1 / 8;
-							work[pyx + 6 + 2] += b_error * 1 / 8;
-						}
-					}
-					if (y < height - 1) {
-						work[py1x - 3]     += r_error * 1 / 8;
-						work[py1x - 3 + 1] += g_error * 1 / 8;
-						work[py1x - 3 + 2] += b_error * 1 / 8;
-
-						work[py1x]     += r_error * 1 / 8;
-						work[py1x + 1] += g_error * 1 / 8;
-						work[py1x + 2] += b_error * 1 / 8;
-
-						if (x < (width - 1) * 3) {
-							work[py1x + 3]     += r_error * 1 / 8;
-							work[py1x + 3 + 1] += g_error * 1 / 8;
-							work[py1x + 3 + 2] += b_error * 1 / 8;
-						}
-						
-						if (y < height - 2) {
-							work[py2x]     += r_error * 1 / 8;
-							work[py2x + 1] += g_error * 1 / 8;
-							work[py2x + 2] += b_error * 1 / 8;
-						}
-					}					
-					break;					
-				}
+				chunky[y * width + x] = (byte) action;
+
+				return held[y] = (r << 16) | (g << 8) | b;
 			}
-		}
+		});
+
+		bitplanes = C2P.lineInterleaved(chunky, width, height, 8); // 8 planes
+	}
+
+	// every row is encoded by beam search over held colors, see HAMPath
+	protected void ham8Path() {
+		final byte chunky[] = HAMPath.chunky(pixels, width, height, config, pictureColors, steps, colorAlg, 8);
+		bitplanes = C2P.lineInterleaved(chunky, width, height, 8); // 8 planes
 	}
-}
\ No newline at end of file
+}
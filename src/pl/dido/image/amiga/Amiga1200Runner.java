@@ -4,8 +4,6 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import javax.swing.JMenu;
@@ -17,7 +15,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
-import pl.dido.image.utils.IFF;
+import pl.dido.image.utils.ILBMWriter;
 import pl.dido.image.utils.Utils;
 
 public class Amiga1200Runner extends AbstractRendererRunner {
@@ -60,55 +58,60 @@ public class Amiga1200Runner extends AbstractRendererRunner {
 		return menuBar;
 	}
 
+	public static void exportIFF(final Amiga1200Renderer a1200, final String fileName) throws IOException {
+		final int width = a1200.config.getWidth();
+		final int height = a1200.config.getHeight();
+
+		int videoMode = 0, aspectX = 0, aspectY = 0;
+		switch (((Amiga1200Config) a1200.config).video_mode) {
+		case STD_320x256:
+			videoMode = 0x0000;
+			aspectX = 44;
+			aspectY = 44;
+			break;
+		case HAM8_320x256:
+			videoMode = 0x0800;
+			aspectX = 44;
+			aspectY = 44;
+			break;
+		case HAM8_320x512:
+			videoMode = 0x0804;
+			aspectX = 22;
+			aspectY = 44;
+			break;
+		case STD_320x512:
+			videoMode = 0x0004;
+			aspectX = 22;
+			aspectY = 44;
+			break;
+		case HAM8_640x512:
+			videoMode = 0x8804;
+			aspectX = 44;
+			aspectY = 44;
+			break;
+		case STD_640x512:
+			videoMode = 0x8004;
+			aspectX = 44;
+			aspectY = 44;
+			break;
+		}
+
+		final boolean compressed = ((AmigaConfig) a1200.config).rleCompress;
+		try (final ILBMWriter iff = new ILBMWriter(fileName)) {
+			iff.bitmapHeader(width, height, aspectX, aspectY, 8, compressed);
+			iff.colorMap(a1200.pictureColors);
+			iff.videoMode(videoMode);
+			iff.body(a1200.bitplanes, width, compressed);
+		}
+	}
+
 	protected void exportIFF(final String path, String fileName) {
 		try {
 			if (fileName.length() > 8)
 				fileName = fileName.substring(0, 7);
 
 			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
-			final BufferedOutputStream chk = new BufferedOutputStream(new FileOutputStream(path + fileName + ".iff"),
-					8192);
-
-			int videoMode = 0, aspectX = 0, aspectY = 0;
-			switch (((Amiga1200Config) a1200.config).video_mode) {
-			case STD_320x256:
-				videoMode = 0x0000;
-				aspectX = 44;
-				aspectY = 44;
-				break;
-			case HAM8_320x256:
-				videoMode = 0x0800;
-				aspectX = 44;
-				aspectY = 44;
-				break;
-			case HAM8_320x512:
-				videoMode = 0x0804;
-				aspectX = 22;
-				aspectY = 44;
-				break;
-			case STD_320x512:
-				videoMode = 0x0004;
-				aspectX = 22;
-				aspectY = 44;
-				break;
-			case HAM8_640x512:
-				videoMode = 0x8804;
-				aspectX = 44;
-				aspectY = 44;
-				break;
-			case STD_640x512:
-				videoMode = 0x8004;
-				aspectX = 44;
-				aspectY = 44;
-				break;
-			}
-
-			final boolean compressed = ((AmigaConfig) a1200.config).rleCompress;
-			chk.write(IFF.getILBMFormat(IFF.chunk("BMHD", IFF.getILBMHD(width, height, aspectX, aspectY, 8, compressed)), 
-					IFF.chunk("CMAP", IFF.getCMAP(a1200.pictureColors, a1200.colorModel)),
-					IFF.chunk("CAMG", IFF.bigEndianDWORD(videoMode)), 
-					IFF.chunk("BODY", IFF.getBitmap(width, height, a1200.bitplanes, compressed))));
-			chk.close();
+			exportIFF(a1200, path + fileName + ".iff");
 
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
@@ -4,8 +4,6 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import javax.swing.JMenu;
@@ -17,7 +15,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
-import pl.dido.image.utils.IFF;
+import pl.dido.image.utils.ILBMWriter;
 import pl.dido.image.utils.Utils;
 
 public class Amiga500Runner extends AbstractRendererRunner {
@@ -60,51 +58,54 @@ public class Amiga500Runner extends AbstractRendererRunner {
 		return menuBar;
 	}
 
+	public static void exportIFF(final Amiga500Renderer a500, final String fileName) throws IOException {
+		final int width = a500.config.getWidth();
+		final int height = a500.config.getHeight();
+
+		int videoMode = 0, aspectX = 0, aspectY = 0, planes = 0;
+		switch (((Amiga500Config) a500.config).video_mode) {
+		case STD_320x256:
+			videoMode = 0x0000;
+			aspectX = 44;
+			aspectY = 44;
+			planes = 5;
+			break;
+		case HAM6_320x256:
+			videoMode = 0x0800;
+			aspectX = 44;
+			aspectY = 44;
+			planes = 6;
+			break;
+		case STD_320x512:
+			videoMode = 0x0004;
+			aspectX = 22;
+			aspectY = 44;
+			planes = 5;
+			break;
+		case HAM6_320x512:
+			videoMode = 0x0804;
+			aspectX = 22;
+			aspectY = 44;
+			planes = 6;
+			break;
+		}
+
+		final boolean compressed = ((AmigaConfig) a500.config).rleCompress;
+		try (final ILBMWriter iff = new ILBMWriter(fileName)) {
+			iff.bitmapHeader(width, height, aspectX, aspectY, planes, compressed);
+			iff.colorMap(a500.pictureColors);
+			iff.videoMode(videoMode);
+			iff.body(a500.bitplanes, width, compressed);
+		}
+	}
+
 	protected void exportIFF(final String path, String fileName) {
 		try {
 			if (fileName.length() > 8)
 				fileName = fileName.substring(0, 7);
 
 			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
-			final BufferedOutputStream chk = new BufferedOutputStream(new FileOutputStream(path + fileName + ".iff"),
-					8192);
-
-			int videoMode = 0, aspectX = 0, aspectY = 0, planes = 0;
-			switch (((Amiga500Config) a500.config).video_mode) {
-			case STD_320x256:
-				videoMode = 0x0000;
-				aspectX = 44;
-				aspectY = 44;
-				planes = 5;
-				break;
-			case HAM6_320x256:
-				videoMode = 0x0800;
-				aspectX = 44;
-				aspectY = 44;
-				planes = 6;
-				break;
-			case STD_320x512:
-				videoMode = 0x0004;
-				aspectX = 22;
-				aspectY = 44;
-				planes = 5;
-				break;
-			case HAM6_320x512:
-				videoMode = 0x0804;
-				aspectX = 22;
-				aspectY = 44;
-				planes = 6;
-				break;
-			}
-
-			final boolean compressed = ((AmigaConfig) a500.config).rleCompress;
-			chk.write(IFF.getILBMFormat(
-					IFF.chunk("BMHD", IFF.getILBMHD(width, height, aspectX, aspectY, planes, compressed)),
-					IFF.chunk("CMAP", IFF.getCMAP(a500.pictureColors, a500.colorModel)),
-					IFF.chunk("CAMG", IFF.bigEndianDWORD(videoMode)),
-					IFF.chunk("BODY", IFF.getBitmap(width, height, a500.bitplanes, compressed))));
-
-			chk.close();
+			exportIFF(a500, path + fileName + ".iff");
 
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
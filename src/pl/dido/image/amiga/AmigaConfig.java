@@ -5,10 +5,12 @@ import pl.dido.image.utils.Config;
 public abstract class AmigaConfig extends Config {
 	
 	public boolean rleCompress;
+	public boolean optimal_ham; // HAM rows by beam search instead of greedy choice
 	
 	public AmigaConfig() {
 		super();
 		
 		rleCompress = false;
+		optimal_ham = false;
 	}
 }
@@ -0,0 +1,227 @@
+package pl.dido.image.amiga;
+
+import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Config.NEAREST_COLOR;
+import pl.dido.image.utils.ErrorDiffusion;
+import pl.dido.image.utils.Gfx;
+
+/**
+ * Hold and modify scanline encoded by beam search over held colors. Every pixel keeps the BEAM
+ * cheapest held colors reached so far, each one is followed by every base palette color and by change
+ * of one component to the level nearest to the target or its neighbour levels. Whole row is traced
+ * back from the best color of the last pixel, so a change may be picked because of pixels which
+ * follow it. Pruned beam and three levels per component do not guarantee the least error row. One
+ * instance per thread, row buffers are reused.
+ */
+public class HAMPath {
+
+	// kinds of pixel actions, action is kind << 8 | palette index or level
+	public static final int PALETTE = 0;
+	public static final int RED = 1;
+	public static final int GREEN = 2;
+	public static final int BLUE = 3;
+
+	private static final int BEAM = 16; // held colors kept for every pixel
+
+	private final int palette[][];
+	private final int levels[]; // component value of every level
+	private final int nearest[] = new int[256]; // nearest level of component value
+
+	private final NEAREST_COLOR colorAlg;
+	private final int width;
+
+	// beam of every pixel: held color, parent in beam of previous pixel and action
+	private final int colors[];
+	private final int parents[];
+	private final int actions[];
+	private final int counts[];
+
+	private double costs[] = new double[BEAM]; // path errors of beam of current pixel
+	private double previous[] = new double[BEAM];
+
+	public HAMPath(final int palette[][], final int levels[], final NEAREST_COLOR colorAlg, final int width) {
+		this.palette = palette;
+		this.levels = levels;
+		this.colorAlg = colorAlg;
+		this.width = width;
+
+		for (int c = 0; c < 256; c++) {
+			int min = Integer.MAX_VALUE;
+
+			for (int i = 0; i < levels.length; i++) {
+				final int d = Math.abs(c - levels[i]);
+
+				if (d < min) {
+					min = d;
+					nearest[c] = i;
+				}
+			}
+		}
+
+		colors = new int[width * BEAM];
+		parents = new int[width * BEAM];
+		actions = new int[width * BEAM];
+		counts = new int[width];
+	}
+
+	// palette index or HAM code of every pixel for given number of planes, two top bits select change
+	public static byte[] chunky(final byte pixels[], final int width, final int height, final Config config,
+			final int palette[][], final int levels[], final NEAREST_COLOR colorAlg, final int planes) {
+		final byte chunky[] = new byte[width * height];
+		final int shift = planes - 2;
+
+		// rows may be encoded in parallel
+		final ThreadLocal<HAMPath> paths = new ThreadLocal<HAMPath>() {
+			@Override
+			protected HAMPath initialValue() {
+				return new HAMPath(palette, levels, colorAlg, width);
+			}
+		};
+
+		new ErrorDiffusion(config, palette, width, height).ditherRows(pixels, new ErrorDiffusion.RowQuantizer() {
+			public void quantize(final int y, final int targets[], final int colors[]) {
+				final int actions[] = new int[width];
+				paths.get().encode(targets, colors, actions);
+
+				for (int x = 0; x < width; x++) {
+					final int value = actions[x] & 0xff; // palette index or level
+					final int action;
+
+					switch (actions[x] >> 8) {
+					case RED:
+						action = (0b10 << shift) | value;
+						break;
+					case GREEN:
+						action = (0b11 << shift) | value;
+						break;
+					case BLUE:
+						action = (0b01 << shift) | value;
+						break;
+					default:
+						action = value;
+						break;
+					}
+
+					chunky[y * width + x] = (byte) action;
+				}
+			}
+		});
+
+		return chunky;
+	}
+
+	// targets r, g, b of every pixel, fills colors as r << 16 | g << 8 | b and actions of the row
+	public void encode(final int targets[], final int row[], final int rowActions[]) {
+		final int plen = palette.length;
+
+		for (int x = 0, x3 = 0; x < width; x++, x3 += 3) {
+			final int r0 = targets[x3];
+			final int g0 = targets[x3 + 1];
+			final int b0 = targets[x3 + 2];
+
+			final double swap[] = previous;
+			previous = costs;
+			costs = swap;
+
+			final int last = (x - 1) * BEAM;
+			counts[x] = 0;
+
+			// base palette follows the best path so far
+			final int best = x > 0 ? 0 : -1; // beam is sorted by cost
+			final double bestCost = x > 0 ? previous[0] : 0;
+
+			for (int i = 0; i < plen; i++) {
+				final int c[] = palette[i];
+				final float d = Gfx.getDistance(colorAlg, r0, g0, b0, c[0], c[1], c[2]);
+
+				offer(x, (c[0] << 16) | (c[1] << 8) | c[2], bestCost + d, best, (PALETTE << 8) | i);
+			}
+
+			// first pixel of row has no held color
+			if (x == 0)
+				continue;
+
+			final int nr = nearest[r0];
+			final int ng = nearest[g0];
+			final int nb = nearest[b0];
+
+			final int count = counts[x - 1];
+			for (int s = 0; s < count; s++) {
+				final int held = colors[last + s];
+				final double cost = previous[s];
+
+				final int r = (held >> 16) & 0xff;
+				final int g = (held >> 8) & 0xff;
+				final int b = held & 0xff;
+
+				for (int l = Math.max(0, nr - 1); l <= Math.min(levels.length - 1, nr + 1); l++) {
+					final int v = levels[l];
+					offer(x, (v << 16) | (g << 8) | b, cost + Gfx.getDistance(colorAlg, r0, g0, b0, v, g, b), s,
+							(RED << 8) | l);
+				}
+
+				for (int l = Math.max(0, ng - 1); l <= Math.min(levels.length - 1, ng + 1); l++) {
+					final int v = levels[l];
+					offer(x, (r << 16) | (v << 8) | b, cost + Gfx.getDistance(colorAlg, r0, g0, b0, r, v, b), s,
+							(GREEN << 8) | l);
+				}
+
+				for (int l = Math.max(0, nb - 1); l <= Math.min(levels.length - 1, nb + 1); l++) {
+					final int v = levels[l];
+					offer(x, (r << 16) | (g << 8) | v, cost + Gfx.getDistance(colorAlg, r0, g0, b0, r, g, v), s,
+							(BLUE << 8) | l);
+				}
+			}
+		}
+
+		// trace back from the best held color of the last pixel
+		for (int x = width - 1, s = 0; x >= 0; x--) {
+			final int k = x * BEAM + s;
+
+			row[x] = colors[k];
+			rowActions[x] = actions[k];
+
+			s = parents[k];
+		}
+	}
+
+	// keeps beam sorted by cost, the same held color is kept only once with its least cost
+	private final void offer(final int x, final int color, final double cost, final int parent, final int action) {
+		final int base = x * BEAM;
+		int count = counts[x];
+
+		if (count == BEAM && cost >= costs[count - 1])
+			return;
+
+		int i;
+		for (i = 0; i < count; i++)
+			if (colors[base + i] == color)
+				break;
+
+		if (i < count) {
+			if (cost >= costs[i])
+				return;
+		} else if (count < BEAM) {
+			i = count++;
+			counts[x] = count;
+		} else
+			i = count - 1; // worst one is dropped
+
+		// move up to keep order
+		while (i > 0 && costs[i - 1] > cost) {
+			costs[i] = costs[i - 1];
+
+			colors[base + i] = colors[base + i - 1];
+			parents[base + i] = parents[base + i - 1];
+			actions[base + i] = actions[base + i - 1];
+
+			i--;
+		}
+
+		costs[i] = cost;
+
+		colors[base + i] = color;
+		parents[base + i] = parent;
+		actions[base + i] = action;
+	}
+}
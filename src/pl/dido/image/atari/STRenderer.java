@@ -3,13 +3,14 @@ package pl.dido.image.atari;
 import java.awt.image.BufferedImage;
 
 import pl.dido.image.renderer.AbstractPictureColorsRenderer;
+import pl.dido.image.utils.C2P;
 import pl.dido.image.utils.Config;
-import pl.dido.image.utils.Gfx;
+import pl.dido.image.utils.ErrorDiffusion;
 import pl.dido.image.utils.neural.SOMFixedPalette;
 
 public class STRenderer extends AbstractPictureColorsRenderer {
 
-	protected int bitplanes[] = new int[4 * 20 * 200];
+	protected byte bitplanes[]; // planar screen
 
 	public STRenderer(final BufferedImage image, final Config config) {
 		super(image, config);
@@ -43,125 +44,33 @@ public class STRenderer extends AbstractPictureColorsRenderer {
 	@Override
 	protected void imagePostproces() {
 		final SOMFixedPalette training = new SOMFixedPalette(4, 4, 3); // 4x4 = 16 colors
-		pictureColors = training.train(pixels);
+		pictureColors = config.som_histogram ? training.trainHistogram(pixels, true) : training.train(pixels);
+
+		// only ST colors can be shown
+		for (final int c[] : pictureColors) {
+			final int p[] = palette[getColorIndex(c[0], c[1], c[2])];
+
+			c[0] = p[0];
+			c[1] = p[1];
+			c[2] = p[2];
+		}
 
 		std16();
 	}
 
 	protected void std16() {
-		final int[] work = Gfx.copy2Int(pixels);
-
-		int r0, g0, b0;
-
-		final int width3 = width * 3;
-		int index = 0, shift = 15;
-
-		for (int y = 0; y < height; y++) {
-			final int k1 = (y + 1) * width3;
-			final int k2 = (y + 2) * width3;
-
-			for (int x = 0; x < width3; x += 3) {
-				final int pyx = y * width3 + x;
-				final int py1x = k1 + x;
-				final int py2x = k2 + x;
-
-				r0 = Gfx.saturate(work[pyx]);
-				g0 = Gfx.saturate(work[pyx + 1]);
-				b0 = Gfx.saturate(work[pyx + 2]);
-
-				final int color = Gfx.getColorIndex(colorAlg, colorModel, pictureColors, r0, g0, b0);
-				final int c[] = pictureColors[color];
-
-				final int r = c[0];
-				final int g = c[1];
-				final int b = c[2];
-
-				work[pyx] = r;
-				work[pyx + 1] = g;
-				work[pyx + 2] = b;
-
-				pixels[pyx] = (byte) r;
-				pixels[pyx + 1] = (byte) g;
-				pixels[pyx + 2] = (byte) b;
-
-				final int value = color & 0xf;
-
-				bitplanes[index + 3] |= ((value & 8) >> 3) << shift;
-				bitplanes[index + 2] |= ((value & 4) >> 2) << shift;
-				bitplanes[index + 1] |= ((value & 2) >> 1) << shift;
-				bitplanes[index] |= (value & 1) << shift;
-
-				if (shift == 0) {
-					shift = 15;
-					index += 4;
-				} else
-					shift--;
-
-				if (config.dithering) {
-					final int r_error = r0 - r;
-					final int g_error = g0 - g;
-					final int b_error = b0 - b;
-
-					switch (config.dither_alg) {
-					case STD_FS:
-						if (x < (width - 1) * 3) {
-							work[pyx + 3] += (r_error * 7) / 16;
-							work[pyx + 3 + 1] += (g_error * 7) / 16;
-							work[pyx + 3 + 2] += (b_error * 7) / 16;
-						}
-						if (y < height - 1) {
-							work[py1x - 3] += (r_error * 3) / 16;
-							work[py1x - 3 + 1] += (g_error * 3) / 16;
-							work[py1x - 3 + 2] += (b_error * 3) / 16;
-
-							work[py1x] += (r_error * 5) / 16;
-							work[py1x + 1] += (g_error * 5) / 16;
-							work[py1x + 2] += (b_error * 5) / 16;
-
-							if (x < (width - 1) * 3) {
-								work[py1x + 3] += r_error / 16;
-								work[py1x + 3 + 1] += g_error / 16;
-								work[py1x + 3 + 2] += b_error / 16;
-							}
-						}
-						break;
-					case ATKINSON:
-						if (x < (width - 1) * 3) {
-							work[pyx + 3] += r_error >> 3;
-							work[pyx + 3 + 1] += g_error >> 3;
-							work[pyx + 3 + 2] += b_error >> 3;
-
-							if (x < (width - 2) * 3) {
-								work[pyx + 6] += r_error >> 3;
-								work[pyx + 6 + 1] += g_error >> 3;
-								work[pyx + 6 + 2] += b_error >> 3;
-							}
-						}
-						if (y < height - 1) {
-							work[py1x - 3] += r_error >> 3;
-							work[py1x - 3 + 1] += g_error >> 3;
-							work[py1x - 3 + 2] += b_error >> 3;
-
-							work[py1x] += r_error >> 3;
-							work[py1x + 1] += g_error >> 3;
-							work[py1x + 2] += b_error >> 3;
-
-							if (x < (width - 1) * 3) {
-								work[py1x + 3] += r_error >> 3;
-								work[py1x + 3 + 1] += g_error >> 3;
-								work[py1x + 3 + 2] += b_error >> 3;
-							}
-
-							if (y < height - 2) {
-								work[py2x] += r_error >> 3;
-								work[py2x + 1] += g_error >> 3;
-								work[py2x + 2] += b_error >> 3;
-							}
-						}
-						break;
-					}
-				}
+		final byte chunky[] = new byte[width * height]; // palette index of every pixel
+
+		new ErrorDiffusion(config, pictureColors, width, height).dither(pixels, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				final int color = getColorIndex(pictureColors, r, g, b);
+
+				chunky[y * width + x] = (byte) color;
+
+				return ErrorDiffusion.color(pictureColors[color]);
 			}
-		}
+		});
+
+		bitplanes = C2P.wordInterleaved(chunky, width, height, 4); // 4 planes
 	}
 }
\ No newline at end of file
@@ -5,9 +5,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -18,6 +21,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
 
 public class STRunner extends AbstractRendererRunner {
@@ -60,63 +64,84 @@ public class STRunner extends AbstractRendererRunner {
 		return menuBar;
 	}
 
-	protected void exportDegas(final String path, String fileName) {
-		try {
-			// PI1
-			if (fileName.length() > 8)
-				fileName = fileName.substring(0, 7);
+	public static void exportDegas(final STRenderer st, final String fileName) throws IOException {
+		// PI1
+		final BufferedOutputStream chk = new BufferedOutputStream(new FileOutputStream(fileName), 8192);
 
-			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
-			final BufferedOutputStream chk = new BufferedOutputStream(new FileOutputStream(path + fileName + ".PI1"),
-					8192);
-
-			chk.write(0x0); // screen resolution
-			chk.write(0x0);
-
-			// palette
-			final int len = st.pictureColors.length;
-			for (int i = 0; i < len; i++) {
-
-				final int r;
-				final int g;
-				final int b;
-
-				final int color[] = st.pictureColors[i];
-				switch (st.colorModel) {
-				case BufferedImage.TYPE_3BYTE_BGR:
-					b = color[0] / 32; // 8 -> 3 bits
-					g = color[1] / 32;
-					r = color[2] / 32;
-					break;
-				case BufferedImage.TYPE_INT_RGB:
-					r = color[0] / 32; // 8 -> 3 bits
-					g = color[1] / 32;
-					b = color[2] / 32;
-					break;
-				default:
-					throw new RuntimeException("Unsupported pixel format !!!");
-				}
+		chk.write(0x0); // screen resolution
+		chk.write(0x0);
 
-				final int value = (r << 8) | (g << 4) | b;
+		// palette
+		final int len = st.pictureColors.length;
+		for (int i = 0; i < len; i++) {
+			final int color[] = st.pictureColors[i];
 
-				final int hi = (value & 0xff00) >> 8;
-				final int lo = value & 0xff;
+			final int r = color[0] / 32; // 8 -> 3 bits
+			final int g = color[1] / 32;
+			final int b = color[2] / 32;
 
-				chk.write(hi); // big endian
-				chk.write(lo);
-			}
+			final int value = (r << 8) | (g << 4) | b;
+
+			final int hi = (value & 0xff00) >> 8;
+			final int lo = value & 0xff;
+
+			chk.write(hi); // big endian
+			chk.write(lo);
+		}
+
+		// bit planes, big endian words
+		chk.write(st.bitplanes);
+
+		chk.close();
+	}
+
+	public static BufferedImage importDegas(final String fileName) throws IOException {
+		final byte data[] = Files.readAllBytes(Paths.get(fileName));
+		if (data.length < 32034)
+			throw new IOException("Not a Degas picture: " + fileName);
+
+		// 3 bits components like ST palette of renderer
+		final int palette[] = new int[16];
+		for (int i = 0; i < 16; i++) {
+			final int value = ((data[2 + i * 2] & 0xff) << 8) | (data[3 + i * 2] & 0xff);
 
-			// bit planes
-			for (int i = 0; i < st.bitplanes.length; i++) {
-				final int word = st.bitplanes[i];
-				final int hi = (word & 0xff00) >> 8;
-				final int lo = word & 0xff;
+			final int r = Math.round(((value >> 8) & 7) * 255 / 7f);
+			final int g = Math.round(((value >> 4) & 7) * 255 / 7f);
+			final int b = Math.round((value & 7) * 255 / 7f);
 
-				chk.write(hi); // big endian
-				chk.write(lo);
+			palette[i] = (r << 16) | (g << 8) | b;
+		}
+
+		final BufferedImage image = Gfx.rgbImage(320, 200);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		// 4 planes of 16 pixels, big endian words
+		for (int w = 0, o = 34; w < 4000; w++, o += 8) {
+			final int p0 = ((data[o] & 0xff) << 8) | (data[o + 1] & 0xff);
+			final int p1 = ((data[o + 2] & 0xff) << 8) | (data[o + 3] & 0xff);
+			final int p2 = ((data[o + 4] & 0xff) << 8) | (data[o + 5] & 0xff);
+			final int p3 = ((data[o + 6] & 0xff) << 8) | (data[o + 7] & 0xff);
+
+			for (int x = 0; x < 16; x++) {
+				final int shift = 15 - x;
+				final int color = ((p0 >> shift) & 1) | (((p1 >> shift) & 1) << 1) | (((p2 >> shift) & 1) << 2)
+						| (((p3 >> shift) & 1) << 3);
+
+				Gfx.setPixel(pixels, ((w << 4) + x) * 3, palette[color]);
 			}
+		}
+
+		return image;
+	}
+
+	protected void exportDegas(final String path, String fileName) {
+		try {
+			if (fileName.length() > 8)
+				fileName = fileName.substring(0, 7);
+
+			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
+			exportDegas(st, path + fileName + ".PI1");
 
-			chk.close();
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
@@ -18,6 +18,7 @@ public class C64Config extends Config {
 	public SCREEN_MODE screen_mode;	
 	public LUMA_PIXELS luma_pixels;
 	public PIXEL_MERGE pixel_merge; 
+	public boolean optimal_pair; // hires cell colors by exhaustive search of all pairs
 	
 	public C64Config() {
 		super();
@@ -31,6 +32,7 @@ public class C64Config extends Config {
 		
 		luma_pixels = LUMA_PIXELS.OUTER;		
 		pixel_merge = PIXEL_MERGE.AVERAGE;		
+		optimal_pair = false;
 	}
 	
 	@Override
@@ -3,12 +3,14 @@ package pl.dido.image.c64;
 import java.awt.image.BufferedImage;
 
 import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.ErrorDiffusion;
 import pl.dido.image.utils.Gfx;
+import pl.dido.image.utils.Parallel;
 
 public class C64Renderer extends AbstractRenderer {
 
 	// C64 palette
-	private final static int colors[] = new int[] { 0, 0xFFFFFF, 0x68372B, 0x70A4B2, 0x6F3D86, 0x588D43, 0x352879,
+	protected final static int colors[] = new int[] { 0, 0xFFFFFF, 0x68372B, 0x70A4B2, 0x6F3D86, 0x588D43, 0x352879,
 			0xB8C76F, 0x6F4F25, 0x433900, 0x9A6759, 0x444444, 0x6C6C6C, 0x9AD284, 0x6C5EB5, 0x959595 };
 
 	protected int bitmap[] = new int[40 * 200];
@@ -17,6 +19,8 @@ public class C64Renderer extends AbstractRenderer {
 	protected int nibble[] = new int[1000];
 	protected int backgroundColor = 0;
 
+	private final static int candidates[] = new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
 	public C64Renderer(final BufferedImage image, final C64Config config) {
 		super(image, config);
 
@@ -25,23 +29,10 @@ public class C64Renderer extends AbstractRenderer {
 
 	@Override
 	protected void setupPalette() {
-		switch (colorModel) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = (colors[i] & 0x0000ff); // blue
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = (colors[i] & 0xff0000) >> 16; // red
-			}
-			break;
-		case BufferedImage.TYPE_INT_RGB:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = (colors[i] & 0x0000ff); // blue
-			}
-			break;
-		default:
-			throw new RuntimeException("Unsupported Pixel format !!!");
+		for (int i = 0; i < colors.length; i++) {
+			palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
+			palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
+			palette[i][2] = (colors[i] & 0x0000ff); // blue
 		}
 	}
 
@@ -58,188 +49,121 @@ public class C64Renderer extends AbstractRenderer {
 	}
 
 	protected void hiresLumaDithered() {
-		final int work[] = new int[64 * 3];
-		int bitmapIndex = 0;
-
-		for (int y = 0; y < 200; y += 8) {
-			final int p = y * 320 * 3;
-
-			for (int x = 0; x < 320; x += 8) {
-				final int offset = p + x * 3;
+		// cells are independent, each one writes its own bitmap bytes and screen
+		Parallel.forRange(0, 1000, config.parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				final int work[] = new int[64 * 3];
+				final int distances[] = ((C64Config) config).optimal_pair ? new int[16 * 64] : null;
+				final ErrorDiffusion diffusion = new ErrorDiffusion(config.dithering ? config.dither_alg : null, palette, 8, 8, false);
+
+				for (int cell = from; cell < to; cell++)
+					hiresCell(cell, work, distances, diffusion);
+			}
+		});
+	}
 
-				float min = 255;
-				float max = 0;
+	// optimal pair of colors is searched when distances table is given
+	protected void hiresCell(final int cell, final int work[], final int distances[], final ErrorDiffusion diffusion) {
+		final int y = (cell / 40) << 3;
+		final int x = (cell % 40) << 3;
+
+		final int offset = (y * 320 + x) * 3;
+		final int bitmapIndex = cell << 3;
+
+		float min = 255;
+		float max = 0;
+
+		int index = 0;
+		int f = 0, n = 0;
+
+		// 8x8 tile
+		for (int y0 = 0; y0 < 8; y0++) {
+			for (int x0 = 0; x0 < 24; x0 += 3) {
+				final int position = offset + y0 * 320 * 3 + x0;
+
+				final int r = pixels[position] & 0xff;
+				final int g = pixels[position + 1] & 0xff;
+				final int b = pixels[position + 2] & 0xff;
+
+				work[index++] = r;
+				work[index++] = g;
+				work[index++] = b;
+
+				if (distances != null) // pair search needs pixels only
+					continue;
+
+				switch (((C64Config) config).luma_pixels) {
+				case OUTER:
+					if (x0 > 6 && x0 < 18 && y0 > 2 && y0 < 6) // consider only outer pixels
+						continue;
+					break;
+				case INNER:
+					if (((y0 << 3) + x0) % 2 == 0) // gets only even pixels
+						continue;
+					break;
+				}
 
-				int index = 0;
-				int f = 0, n = 0;
+				final float luma = Gfx.getLuma(r, g, b);
 
-				// 8x8 tile
-				for (int y0 = 0; y0 < 8; y0++) {
-					for (int x0 = 0; x0 < 24; x0 += 3) {
-						final int position = offset + y0 * 320 * 3 + x0;
+				if (luma > max) {
+					max = luma;
+					f = getColorIndex(r, g, b);
+				}
 
-						final int r = pixels[position] & 0xff;
-						final int g = pixels[position + 1] & 0xff;
-						final int b = pixels[position + 2] & 0xff;
+				if (luma < min) {
+					min = luma;
+					n = getColorIndex(r, g, b);
+				}
+			}
+		}
 
-						work[index++] = r;
-						work[index++] = g;
-						work[index++] = b;
+		if (distances != null) {
+			Gfx.distanceTable(colorAlg, work, 64, palette, candidates, distances);
+			final int pair = Gfx.bestPair(distances, 64, candidates);
 
-						switch (((C64Config) config).luma_pixels) {
-						case OUTER:
-							if (x0 > 6 && x0 < 18 && y0 > 2 && y0 < 6) // consider only outer pixels
-								continue;
-							break;
-						case INNER:
-							if (((y0 << 3) + x0) % 2 == 0) // gets only even pixels
-								continue;
-							break;
-						}
+			f = pair >> 8;
+			n = pair & 0xff;
 
-						final float luma = Gfx.getLumaByCM(colorModel, r, g, b);
+			// brighter one as foreground
+			if (luma(f) < luma(n)) {
+				final int t = f;
 
-						if (luma > max) {
-							max = luma;
-							f = getColorIndex(r, g, b);
-						}
+				f = n;
+				n = t;
+			}
+		} else if (f == n) // if same colors = black background
+			n = 0;
 
-						if (luma < min) {
-							min = luma;
-							n = getColorIndex(r, g, b);
-						}
-					}
-				}
+		screen[cell] = ((f & 0xf) << 4) | (n & 0xf);
 
-				// if same colors = black background
-				if (f == n)
-					n = 0;
+		final int cf[] = palette[f];
+		final int cn[] = palette[n];
 
-				screen[(y >> 3) * 40 + (x >> 3)] = ((f & 0xf) << 4) | (n & 0xf);
-				int value = 0, bitcount = 0;
+		diffusion.dither(pixels, offset, 320 * 3, x, y, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				final float d1 = Gfx.getDistance(colorAlg, r, g, b, cf[0], cf[1], cf[2]);
+				final float d2 = Gfx.getDistance(colorAlg, r, g, b, cn[0], cn[1], cn[2]);
 
-				for (int y0 = 0; y0 < 8; y0++) {
-					final int k1 = (y0 + 1) * 24;
-					final int k2 = (y0 + 2) * 24;
-
-					for (int x0 = 0; x0 < 24; x0 += 3) {
-						final int pyx0 = y0 * 24 + x0;
-						final int py1x0 = k1 + x0;
-						final int py2x0 = k2 + x0;
-
-						final int r = work[pyx0];
-						final int g = work[pyx0 + 1];
-						final int b = work[pyx0 + 2];
-
-						final int cf[] = palette[f];
-						final int fr = cf[0];
-						final int fg = cf[1];
-						final int fb = cf[2];
-
-						final int cn[] = palette[n];
-						int nr = cn[0];
-						int ng = cn[1];
-						int nb = cn[2];
-
-						final float d1 = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, fr, fg, fb);
-						final float d2 = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, nr, ng, nb);
-
-						if (d1 < d2) {
-							nr = fr;
-							ng = fg;
-							nb = fb;
-
-							value = (value << 1) | 1;
-						} else
-							value = value << 1;
-
-						if (bitcount % 8 == 7) {
-							bitmap[bitmapIndex++] = value;
-							value = 0;
-						}
+				if (x == 0)
+					bitmap[bitmapIndex + y] = 0;
 
-						bitcount += 1;
-						final int position = offset + y0 * 320 * 3 + x0;
-
-						pixels[position] = (byte) nr;
-						pixels[position + 1] = (byte) ng;
-						pixels[position + 2] = (byte) nb;
-
-						if (config.dithering) {
-							final int r_error = Gfx.saturateByte(r - nr);
-							final int g_error = Gfx.saturateByte(g - ng);
-							final int b_error = Gfx.saturateByte(b - nb);
-
-							switch (config.dither_alg) {
-							case STD_FS:
-								if (x0 < 21) {
-									work[pyx0 + 3] += (r_error * 7) / 16;
-									work[pyx0 + 3 + 1] += (g_error * 7) / 16;
-									work[pyx0 + 3 + 2] += (b_error * 7) / 16;
-								}
-
-								if (y0 < 7) {
-									work[py1x0 - 3] += (r_error * 3) / 16;
-									work[py1x0 - 3 + 1] += (g_error * 3) / 16;
-									work[py1x0 - 3 + 2] += (b_error * 3) / 16;
-
-									work[py1x0] += (r_error * 5) / 16;
-									work[py1x0 + 1] += (g_error * 5) / 16;
-									work[py1x0 + 2] += (b_error * 5) / 16;
-
-									if (x0 < 21) {
-										work[py1x0 + 3] += r_error / 16;
-										work[py1x0 + 3 + 1] += g_error / 16;
-										work[py1x0 + 3 + 2] += b_error / 16;
-									}
-								}
-								break;
-							case ATKINSON:
-								if (x0 < 21) {
-									work[pyx0 + 3] += r_error >> 3;
-									work[pyx0 + 3 + 1] += g_error >> 3;
-									work[pyx0 + 3 + 2] += b_error >> 3;
-
-									if (x0 < 18) {
-										work[pyx0 + 6] += r_error >> 3;
-										work[pyx0 + 6 + 1] += g_error >> 3;
-										work[pyx0 + 6 + 2] += b_error >> 3;
-									}
-								}
-								if (y0 < 7) {
-									work[py1x0 - 3] += r_error >> 3;
-									work[py1x0 - 3 + 1] += g_error >> 3;
-									work[py1x0 - 3 + 2] += b_error >> 3;
-
-									work[py1x0] += r_error >> 3;
-									work[py1x0 + 1] += g_error >> 3;
-									work[py1x0 + 2] += b_error >> 3;
-
-									if (x0 < 21) {
-										work[py1x0 + 3] += r_error >> 3;
-										work[py1x0 + 3 + 1] += g_error >> 3;
-										work[py1x0 + 3 + 2] += b_error >> 3;
-									}
-
-									if (y0 < 6) {
-										work[py2x0] += r_error >> 3;
-										work[py2x0 + 1] += g_error >> 3;
-										work[py2x0 + 2] += b_error >> 3;
-									}
-								}
-
-								break;
-							}
-						}
-					}
+				if (d1 < d2) {
+					bitmap[bitmapIndex + y] |= 0x80 >> x;
+					return ErrorDiffusion.color(cf);
 				}
+
+				return ErrorDiffusion.color(cn);
 			}
-		}
+		});
+	}
+
+	private final float luma(final int color) {
+		final int c[] = palette[color];
+		return Gfx.getLuma(c[0], c[1], c[2]);
 	}
 
 	protected void lowresOccurrenceDithered() {
 		final int[] newPixels = new int[160 * 200 * 3]; // 160x200
-		int bitmapIndex = 0;
 		int sr = 0, sg = 0, sb = 0;
 
 		// shrinking 320x200 -> 160x200
@@ -274,8 +198,8 @@ public class C64Renderer extends AbstractRenderer {
 							b = (b1 + b2) >> 1;
 							break;
 						default:
-							final float l1 = Gfx.getLumaByCM(colorModel, r1, g1, b1);
-							final float l2 = Gfx.getLumaByCM(colorModel, r2, g2, b2);
+							final float l1 = Gfx.getLuma(r1, g1, b1);
+							final float l2 = Gfx.getLuma(r2, g2, b2);
 							
 							final float sum = l1 + l2;
 							
@@ -300,7 +224,9 @@ public class C64Renderer extends AbstractRenderer {
 			}
 		}
 
-		final int work[] = new int[32 * 3];
+		final byte work[] = new byte[32 * 3];
+		final ErrorDiffusion diffusion = new ErrorDiffusion(config.dithering ? config.dither_alg : null, palette, 4, 8, false);
+
 		sr /= 160 * 200;
 		sg /= 160 * 200;
 		sb /= 160 * 200;
@@ -309,6 +235,13 @@ public class C64Renderer extends AbstractRenderer {
 		final int tilePalette[][] = new int[4][3];
 		backgroundColor = getColorIndex(sr, sg, sb);
 
+		// common color of all tiles
+		final int background[] = palette[backgroundColor];
+
+		tilePalette[0][0] = background[0];
+		tilePalette[0][1] = background[1];
+		tilePalette[0][2] = background[2];
+
 		for (int y = 0; y < 200; y += 8) {
 			final int p1 = y * 160 * 3;
 
@@ -318,11 +251,6 @@ public class C64Renderer extends AbstractRenderer {
 				final int o1 = p1 + x * 4 * 3;
 				int index = 0;
 
-				// common color
-				tilePalette[0][0] = sr;
-				tilePalette[0][1] = sg;
-				tilePalette[0][2] = sb;
-
 				for (int y0 = 0; y0 < 8; y0++) {
 					for (int x0 = 0; x0 < 12; x0 += 3) {
 						final int position = o1 + y0 * 160 * 3 + x0;
@@ -331,9 +259,9 @@ public class C64Renderer extends AbstractRenderer {
 						final int g = newPixels[position + 1];
 						final int b = newPixels[position + 2];
 
-						work[index++] = r;
-						work[index++] = g;
-						work[index++] = b;
+						work[index++] = (byte) r;
+						work[index++] = (byte) g;
+						work[index++] = (byte) b;
 
 						final int color = getColorIndex(r, g, b);
 						occurrence[color]++;
@@ -392,106 +320,20 @@ public class C64Renderer extends AbstractRenderer {
 				screen[position] = ((i1 & 0xf) << 4) | (i2 & 0xf);
 				nibble[position] = i3;
 
-				int value = 0, bitcount = 0;
-				for (int y0 = 0; y0 < 8; y0++) {
-					final int k1 = (y0 + 1) * 12;
-					final int k2 = (y0 + 2) * 12;
-
-					for (int x0 = 0; x0 < 12; x0 += 3) {
-						final int pyx0 = y0 * 12 + x0;
-						final int py1x0 = k1 + x0;
-						final int py2x0 = k2 + x0;
-
-						final int r = work[pyx0];
-						final int g = work[pyx0 + 1];
-						final int b = work[pyx0 + 2];
+				final int bitmapIndex = position << 3;
 
-						index = Gfx.getColorIndex(colorAlg, colorModel, tilePalette, r, g, b);
-						final int c[] = tilePalette[index];
+				diffusion.dither(work, 0, 4 * 3, x * 4, y, new ErrorDiffusion.Quantizer() {
+					public int quantize(final int x, final int y, final int r, final int g, final int b) {
+						final int index = Gfx.getColorIndex(colorAlg, tilePalette, r, g, b);
 
-						final int nr = c[0];
-						final int ng = c[1];
-						final int nb = c[2];
+						if (x == 0)
+							bitmap[bitmapIndex + y] = 0;
 
-						work[pyx0] = nr;
-						work[pyx0 + 1] = ng;
-						work[pyx0 + 2] = nb;
-
-						value = (value << 2) | (index & 0x3);
-						if (bitcount % 4 == 3) {
-							bitmap[bitmapIndex++] = value;
-							value = 0;
-						}
-
-						bitcount += 1;
-
-						if (config.dithering) {
-							final int r_error = Gfx.saturateByte(r - nr);
-							final int g_error = Gfx.saturateByte(g - ng);
-							final int b_error = Gfx.saturateByte(b - nb);
-
-							switch (config.dither_alg) {
-							case STD_FS:
-								if (x0 < 9) {
-									work[pyx0 + 3] += r_error * 7 / 16;
-									work[pyx0 + 3 + 1] += g_error * 7 / 16;
-									work[pyx0 + 3 + 2] += b_error * 7 / 16;
-								}
-								if (y0 < 7) {
-									work[py1x0 - 3] += r_error * 3 / 16;
-									work[py1x0 - 3 + 1] += g_error * 3 / 16;
-									work[py1x0 - 3 + 2] += b_error * 3 / 16;
-
-									work[py1x0] += r_error * 5 / 16;
-									work[py1x0 + 1] += g_error * 5 / 16;
-									work[py1x0 + 2] += b_error * 5 / 16;
-
-									if (x0 < 9) {
-										work[py1x0 + 3] += r_error / 16;
-										work[py1x0 + 3 + 1] += g_error / 16;
-										work[py1x0 + 3 + 2] += b_error / 16;
-									}
-								}
-								break;
-							case ATKINSON:
-								if (x0 < 9) {
-									work[pyx0 + 3] += r_error * 1 / 8;
-									work[pyx0 + 3 + 1] += g_error * 1 / 8;
-									work[pyx0 + 3 + 2] += b_error * 1 / 8;
-
-									if (x0 < 6) {
-										work[pyx0 + 6] += r_error * 1 / 8;
-										work[pyx0 + 6 + 1] += g_error * 1 / 8;
-										work[pyx0 + 6 + 2] += b_error * 1 / 8;
-									}
-								}
-								if (y0 < 7) {
-									work[py1x0 - 3] += r_error * 1 / 8;
-									work[py1x0 - 3 + 1] += g_error * 1 / 8;
-									work[py1x0 - 3 + 2] += b_error * 1 / 8;
-
-									work[py1x0] += r_error * 1 / 8;
-									work[py1x0 + 1] += g_error * 1 / 8;
-									work[py1x0 + 2] += b_error * 1 / 8;
-
-									if (x0 < 9) {
-										work[py1x0 + 3] += r_error * 1 / 8;
-										work[py1x0 + 3 + 1] += g_error * 1 / 8;
-										work[py1x0 + 3 + 2] += b_error * 1 / 8;
-									}
-
-									if (y0 < 6) {
-										work[py2x0] += r_error * 1 / 8;
-										work[py2x0 + 1] += g_error * 1 / 8;
-										work[py2x0 + 2] += b_error * 1 / 8;
-									}
-								}
-
-								break;
-							}
-						}
+						// 4 double pixels in byte
+						bitmap[bitmapIndex + y] |= (index & 0x3) << (6 - (x << 1));
+						return ErrorDiffusion.color(tilePalette[index]);
 					}
-				}
+				});
 
 				index = 0;
 
@@ -503,14 +345,14 @@ public class C64Renderer extends AbstractRenderer {
 					for (int tx = 0; tx < 24; tx += 6) {
 						position = o2 + ty * 320 * 3 + tx;
 
-						pixels[position] = (byte) work[index];
-						pixels[position + 3] = (byte) work[index++];
+						pixels[position] = work[index];
+						pixels[position + 3] = work[index++];
 
-						pixels[position + 1] = (byte) work[index];
-						pixels[position + 4] = (byte) work[index++];
+						pixels[position + 1] = work[index];
+						pixels[position + 4] = work[index++];
 
-						pixels[position + 2] = (byte) work[index];
-						pixels[position + 5] = (byte) work[index++];
+						pixels[position + 2] = work[index];
+						pixels[position + 5] = work[index++];
 					}
 			}
 		}
@@ -4,11 +4,15 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -19,6 +23,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
 
 public class C64Runner extends AbstractRendererRunner {
@@ -30,138 +35,222 @@ public class C64Runner extends AbstractRendererRunner {
 		c64 = (C64Renderer) renderer;
 	}
 
-	private void hiresExport(final String fileName) {
-		try {
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+	public static void hiresExport(final C64Renderer c64, final String fileName) throws IOException {
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
 
-			// loading address
-			out.write(0);
-			out.write(0x20);
+		// loading address
+		out.write(0);
+		out.write(0x20);
 
-			// bitmap
-			for (int i = 0; i < c64.bitmap.length; i++)
-				out.write(c64.bitmap[i] & 0xff);
+		// bitmap
+		for (int i = 0; i < c64.bitmap.length; i++)
+			out.write(c64.bitmap[i] & 0xff);
 
-			// attributes
-			for (int i = 0; i < c64.screen.length; i++)
-				out.write(c64.screen[i] & 0xff);
+		// attributes
+		for (int i = 0; i < c64.screen.length; i++)
+			out.write(c64.screen[i] & 0xff);
 
-			out.close();
-			frame.setTitle(frame.getTitle() + " SAVED");
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
+		out.close();
 	}
 
-	private void hiresExportPRG(final String fileName) {
-		try {
-			final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("high.prg"), 8192);
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+	public static void hiresExportPRG(final C64Renderer c64, final String fileName) throws IOException {
+		final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("high.prg"), 8192);
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
 
-			// loading address BASIC
-			out.write(0x01);
-			out.write(0x08);
+		// loading address BASIC
+		out.write(0x01);
+		out.write(0x08);
 
-			int data, prg_len = 0;
-			in.read(); // skip loading address
-			in.read();
+		int data, prg_len = 0;
+		in.read(); // skip loading address
+		in.read();
 
-			while ((data = in.read()) != -1) {
-				out.write(data);
-				prg_len += 1;
-			}
+		while ((data = in.read()) != -1) {
+			out.write(data);
+			prg_len += 1;
+		}
 
-			in.close();
+		in.close();
 
-			// spare bytes
-			int spare = 6143 - prg_len;
-			for (int i = 0; i < spare; i++)
-				out.write(0xff);
+		// spare bytes
+		int spare = 6143 - prg_len;
+		for (int i = 0; i < spare; i++)
+			out.write(0xff);
 
-			// bitmap
-			for (int i = 0; i < c64.bitmap.length; i++)
-				out.write(c64.bitmap[i] & 0xff);
+		// bitmap
+		for (int i = 0; i < c64.bitmap.length; i++)
+			out.write(c64.bitmap[i] & 0xff);
 
-			// attributes
-			for (int i = 0; i < c64.screen.length; i++)
-				out.write(c64.screen[i] & 0xff);
+		// attributes
+		for (int i = 0; i < c64.screen.length; i++)
+			out.write(c64.screen[i] & 0xff);
 
-			out.close();
-			frame.setTitle(frame.getTitle() + " SAVED");
-		} catch (final IOException e) {
-			e.printStackTrace();
+		out.close();
+	}
+
+	public static void lowresExportPRG(final C64Renderer c64, final String fileName) throws IOException {
+		final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("low.prg"), 8192);
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+
+		// loading address BASIC
+		out.write(0x01);
+		out.write(0x08);
+
+		int data, prg_len = 0;
+		in.read(); // skip loading address
+		in.read();
+
+		while ((data = in.read()) != -1) {
+			out.write(data);
+			prg_len += 1;
 		}
+
+		in.close();
+
+		// spare bytes
+		int spare = 6143 - prg_len;
+		for (int i = 0; i < spare; i++)
+			out.write(0xff);
+
+		// bitmap
+		for (int i = 0; i < 8000; i++)
+			out.write(c64.bitmap[i] & 0xff);
+
+		// attributes
+		for (int i = 0; i < 1000; i++)
+			out.write(c64.screen[i] & 0xff);
+
+		// color nibbles
+		for (int i = 0; i < 1000; i++)
+			out.write(c64.nibble[i] & 0xf);
+
+		out.write(c64.backgroundColor & 0xff);
+		out.close();
 	}
 
-	private void lowresExportPRG(final String fileName) {
-		try {
-			final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("low.prg"), 8192);
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+	public static void lowresExport(final C64Renderer c64, final String fileName) throws IOException {
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+
+		// header
+		out.write(0);
+		out.write(0x60);
+
+		// bitmap
+		for (int i = 0; i < 8000; i++)
+			out.write(c64.bitmap[i] & 0xff);
+
+		// attributes
+		for (int i = 0; i < 1000; i++)
+			out.write(c64.screen[i] & 0xff);
+
+		// color nibbles
+		for (int i = 0; i < 1000; i++)
+			out.write(c64.nibble[i] & 0xf);
+
+		out.write(c64.backgroundColor & 0xff);
+		out.close();
+	}
+
+	// Art Studio picture or executable, both end with bitmap and screen
+	public static BufferedImage hiresImport(final String fileName) throws IOException {
+		final byte data[] = Files.readAllBytes(Paths.get(fileName));
+		if (data.length < 9002)
+			throw new IOException("Not a hires picture: " + fileName);
+
+		final int offset = data.length - 9000;
+
+		final BufferedImage image = Gfx.rgbImage(320, 200);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
 
-			// loading address BASIC
-			out.write(0x01);
-			out.write(0x08);
+		for (int cell = 0; cell < 1000; cell++) {
+			final int colors = data[offset + 8000 + cell] & 0xff;
+			final int f = C64Renderer.colors[colors >> 4];
+			final int n = C64Renderer.colors[colors & 0xf];
 
-			int data, prg_len = 0;
-			in.read(); // skip loading address
-			in.read();
+			final int p = ((cell / 40) * 320 * 8 + (cell % 40) * 8) * 3;
 
-			while ((data = in.read()) != -1) {
-				out.write(data);
-				prg_len += 1;
+			for (int y0 = 0; y0 < 8; y0++) {
+				final int bits = data[offset + (cell << 3) + y0] & 0xff;
+
+				for (int x0 = 0; x0 < 8; x0++)
+					Gfx.setPixel(pixels, p + (y0 * 320 + x0) * 3, (bits & (0x80 >> x0)) != 0 ? f : n);
 			}
+		}
+
+		return image;
+	}
+
+	// Koala picture or executable, both end with bitmap, screen, color nibbles and background
+	public static BufferedImage lowresImport(final String fileName) throws IOException {
+		final byte data[] = Files.readAllBytes(Paths.get(fileName));
+		if (data.length < 10003)
+			throw new IOException("Not a multicolor picture: " + fileName);
+
+		final int offset = data.length - 10001;
+		final int background = C64Renderer.colors[data[offset + 10000] & 0xf];
+
+		final BufferedImage image = Gfx.rgbImage(320, 200);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		final int tile[] = new int[4];
+		tile[0] = background;
+
+		for (int cell = 0; cell < 1000; cell++) {
+			final int colors = data[offset + 8000 + cell] & 0xff;
 
-			in.close();
+			tile[1] = C64Renderer.colors[colors >> 4];
+			tile[2] = C64Renderer.colors[colors & 0xf];
+			tile[3] = C64Renderer.colors[data[offset + 9000 + cell] & 0xf];
 
-			// spare bytes
-			int spare = 6143 - prg_len;
-			for (int i = 0; i < spare; i++)
-				out.write(0xff);
+			final int p = ((cell / 40) * 320 * 8 + (cell % 40) * 8) * 3;
 
-			// bitmap
-			for (int i = 0; i < 8000; i++)
-				out.write(c64.bitmap[i] & 0xff);
+			for (int y0 = 0; y0 < 8; y0++) {
+				final int bits = data[offset + (cell << 3) + y0] & 0xff;
 
-			// attributes
-			for (int i = 0; i < 1000; i++)
-				out.write(c64.screen[i] & 0xff);
+				// 4 double pixels in byte
+				for (int x0 = 0; x0 < 4; x0++) {
+					final int color = tile[(bits >> (6 - (x0 << 1))) & 0x3];
+					final int i = p + (y0 * 320 + (x0 << 1)) * 3;
 
-			// color nibbles
-			for (int i = 0; i < 1000; i++)
-				out.write(c64.nibble[i] & 0xf);
+					Gfx.setPixel(pixels, i, color);
+					Gfx.setPixel(pixels, i + 3, color);
+				}
+			}
+		}
 
-			out.write(c64.backgroundColor & 0xff);
+		return image;
+	}
 
-			out.close();
+	private void hiresExport(final String fileName) {
+		try {
+			hiresExport(c64, fileName);
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void lowresExport(final String fileName) {
+	private void hiresExportPRG(final String fileName) {
 		try {
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
-
-			// header
-			out.write(0);
-			out.write(0x60);
-
-			// bitmap
-			for (int i = 0; i < 8000; i++)
-				out.write(c64.bitmap[i] & 0xff);
-
-			// attributes
-			for (int i = 0; i < 1000; i++)
-				out.write(c64.screen[i] & 0xff);
-
-			// color nibbles
-			for (int i = 0; i < 1000; i++)
-				out.write(c64.nibble[i] & 0xf);
+			hiresExportPRG(c64, fileName);
+			frame.setTitle(frame.getTitle() + " SAVED");
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			out.write(c64.backgroundColor & 0xff);
+	private void lowresExportPRG(final String fileName) {
+		try {
+			lowresExportPRG(c64, fileName);
+			frame.setTitle(frame.getTitle() + " SAVED");
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			out.close();
+	private void lowresExport(final String fileName) {
+		try {
+			lowresExport(c64, fileName);
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
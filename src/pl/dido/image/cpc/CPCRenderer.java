@@ -3,6 +3,7 @@ package pl.dido.image.cpc;
 import java.awt.image.BufferedImage;
 
 import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.ErrorDiffusion;
 import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.neural.SOMFixedPalette;
 import pl.dido.image.utils.neural.SOMWinnerFixedPalette;
@@ -10,7 +11,7 @@ import pl.dido.image.utils.neural.SOMWinnerFixedPalette;
 public class CPCRenderer extends AbstractRenderer {
 
 	// CPC palette 27 colors
-	private final static int colors[] = new int[] { 0x000201, 0x00026B, 0x0C02F4, 0x6C0201, 0x690268, 0x6C02F2,
+	protected final static int colors[] = new int[] { 0x000201, 0x00026B, 0x0C02F4, 0x6C0201, 0x690268, 0x6C02F2,
 			0xF30506, 0xF00268, 0xF302F4, 0x027801, 0x007868, 0x0C7BF4, 0x6E7B01, 0x6E7D6B, 0x6E7BF6, 0xF37D0D,
 			0xF37D6B, 0xFA80F9, 0x02F001, 0x00F36B, 0x0FF3F2, 0x71F504, 0x71F36B, 0x71F3F4, 0xF3F30D, 0xF3F36D,
 			0xFFF3F9};
@@ -20,7 +21,7 @@ public class CPCRenderer extends AbstractRenderer {
 
 	protected int firmwareIndexes[];
 
-	protected int colorMapping[] = new int[] { 0x54, 0x44, 0x55, 0x5C, 0x58, 0x5D, 0x4C, 0x45, 0x4D, 0x56, 0x46, 0x57,
+	protected final static int colorMapping[] = new int[] { 0x54, 0x44, 0x55, 0x5C, 0x58, 0x5D, 0x4C, 0x45, 0x4D, 0x56, 0x46, 0x57,
 			0x5E, 0x40, 0x5F, 0x4E, 0x47, 0x4F, 0x52, 0x42, 0x53, 0x5A, 0x59, 0x5B, 0x4A, 0x43, 0x4B };
 
 	public CPCRenderer(final BufferedImage image, final CPCConfig config) {
@@ -30,27 +31,12 @@ public class CPCRenderer extends AbstractRenderer {
 
 	@Override
 	protected void setupPalette() {
-		switch (colorModel) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			for (int i = 0; i < colors.length; i++) {
-				final int pixel[] = palette[i];
-
-				pixel[0] = (colors[i] & 0x0000ff); // blue
-				pixel[1] = (colors[i] & 0x00ff00) >> 8; // green
-				pixel[2] = (colors[i] & 0xff0000) >> 16; // red
-			}
-			break;
-		case BufferedImage.TYPE_INT_RGB:
-			for (int i = 0; i < colors.length; i++) {
-				final int pixel[] = palette[i];
+		for (int i = 0; i < colors.length; i++) {
+			final int pixel[] = palette[i];
 
-				pixel[0] = (colors[i] & 0xff0000) >> 16; // red
-				pixel[1] = (colors[i] & 0x00ff00) >> 8; // green
-				pixel[2] = (colors[i] & 0x0000ff); // blue
-			}
-			break;
-		default:
-			throw new RuntimeException("Unsupported Pixel format !!!");
+			pixel[0] = (colors[i] & 0xff0000) >> 16; // red
+			pixel[1] = (colors[i] & 0x00ff00) >> 8; // green
+			pixel[2] = (colors[i] & 0x0000ff); // blue
 		}
 	}
 
@@ -75,12 +61,12 @@ public class CPCRenderer extends AbstractRenderer {
 		switch (mode) {
 		case MODE0:
 			som = new SOMWinnerFixedPalette(4, 4, 2);
-			p = som.train(pixels);
+			p = config.som_histogram ? som.trainHistogram(pixels, false) : som.train(pixels);
 
 			break;
 		default:
 			som = new SOMWinnerFixedPalette(2, 2, 2);
-			p = som.train(pixels);
+			p = config.som_histogram ? som.trainHistogram(pixels, false) : som.train(pixels);
 
 			break;
 		}
@@ -107,7 +93,7 @@ public class CPCRenderer extends AbstractRenderer {
 
 			for (int i = 0; i < size; i++) {
 				final int c[] = p[i];
-				final float luma = Gfx.getLumaByCM(colorModel, c[0], c[1], c[2]);
+				final float luma = Gfx.getLuma(c[0], c[1], c[2]);
 
 				if (luma < min) {
 					min = luma;
@@ -122,14 +108,14 @@ public class CPCRenderer extends AbstractRenderer {
 
 			int c[] = p[ix];
 			// dimmed white - yellow
-			c[0] = 255;
-			c[1] = 255;
-			c[2] = 255;
+			c[0] = palette[25][0];
+			c[1] = palette[25][1];
+			c[2] = palette[25][2];
 			
 			c = p[im];
-			c[0] = 0;
-			c[1] = 0;
-			c[2] = 0;
+			c[0] = palette[0][0];
+			c[1] = palette[0][1];
+			c[2] = palette[0][2];
 
 			firmwareIndexes[ix] = 25;
 			firmwareIndexes[im] = 0;
@@ -139,103 +125,27 @@ public class CPCRenderer extends AbstractRenderer {
 	}
 
 	protected void mode1() {
-		final int[] work = Gfx.copy2Int(pixels);
-
-		int r0, g0, b0;
-
-		final int width3 = width * 3;
-		int bit0 = 128, bit1 = 8;
-
-		for (int y = 0; y < height; y++) {
-			int index = 0;
+		new ErrorDiffusion(config, pictureColors, width, height).dither(pixels, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				final int color = getColorIndex(pictureColors, r, g, b);
 
-			final int i = y >> 3;
-			final int j = y - (i << 3);
-
-			final int offset = i * 80 + j * 2048;
-
-			for (int x = 0; x < width3; x += 3) {
-				final int pyx = y * width3 + x;
-				final int py1x = (y + 1) * width3 + x;
-				final int py2x = (y + 2) * width3 + x;
-
-				r0 = work[pyx];
-				g0 = work[pyx + 1];
-				b0 = work[pyx + 2];
-
-				final int color = Gfx.getColorIndex(colorAlg, colorModel, pictureColors, r0, g0, b0);
-				final int c[] = pictureColors[color];
+				final int i = y >> 3;
+				final int j = y - (i << 3);
 
-				final int r = c[0];
-				final int g = c[1];
-				final int b = c[2];
+				final int offset = i * 80 + j * 2048;
+				final int shift = x & 3; // 4 pixels in byte
 
-				work[pyx] = r;
-				work[pyx + 1] = g;
-				work[pyx + 2] = b;
+				final int data = ((color & 1) != 0 ? 128 >> shift : 0) | ((color & 2) != 0 ? 8 >> shift : 0);
+				bitmap[offset + (x >> 2)] |= data;
 
-				pixels[pyx] = (byte) r;
-				pixels[pyx + 1] = (byte) g;
-				pixels[pyx + 2] = (byte) b;
-
-				final int data = ((color & 1) != 0 ? bit0 : 0) | ((color & 2) != 0 ? bit1 : 0);
-				bitmap[offset + index] |= data;
-
-				if (bit0 == 16) {
-					bit0 = 128;
-					bit1 = 8;
-
-					index += 1;
-				} else {
-					bit0 >>= 1;
-					bit1 >>= 1;
-				}
-
-				if (config.dithering) {
-					final int r_error = Gfx.saturate(r0 - r);
-					final int g_error = Gfx.saturate(g0 - g);
-					final int b_error = Gfx.saturate(b0 - b);
-					
-					if (x < (width - 1) * 3) {
-						work[pyx + 3] += r_error >> 3;
-						work[pyx + 3 + 1] += g_error >> 3;
-						work[pyx + 3 + 2] += b_error >> 3;
-
-						if (x < (width - 2) * 3) {
-							work[pyx + 6] += r_error >> 3;
-							work[pyx + 6 + 1] += g_error >> 3;
-							work[pyx + 6 + 2] += b_error >> 3;
-						}
-					}
-					if (y < (height - 1)) {
-						work[py1x - 3] += r_error >> 3;
-						work[py1x - 3 + 1] += g_error >> 3;
-						work[py1x - 3 + 2] += b_error >> 3;
-
-						work[py1x] += r_error >> 3;
-						work[py1x + 1] += g_error >> 3;
-						work[py1x + 2] += b_error >> 3;
-
-						if (x < (width - 1) * 3) {
-							work[py1x + 3] += r_error >> 3;
-							work[py1x + 3 + 1] += g_error >> 3;
-							work[py1x + 3 + 2] += b_error >> 3;
-						}
-
-						if (y < (height - 2)) {
-							work[py2x] += r_error >> 3;
-							work[py2x + 1] += g_error >> 3;
-							work[py2x + 2] += b_error >> 3;
-						}
-					}
-				}
+				return ErrorDiffusion.color(pictureColors[color]);
 			}
-		}
+		});
 	}
 
 	protected void mode0() {
 		final int[] newPixels = new int[160 * 200 * 3]; // 160x200
-		int bit0 = 128, bit1 = 8, bit2 = 0, bit3 = 0;
+		int bit0 = 128, bit1 = 8, bit2 = 32, bit3 = 2;
 
 		// shrinking 320x200 -> 160x200
 		for (int y = 0; y < 200; y++) {
@@ -269,7 +179,7 @@ public class CPCRenderer extends AbstractRenderer {
 					b = (b1 + b2) >> 1;
 					break;
 				default:
-					if (Gfx.getLumaByCM(colorModel, r1, g1, b1) > Gfx.getLumaByCM(colorModel, r2, g2, b2)) {
+					if (Gfx.getLuma(r1, g1, b1) > Gfx.getLuma(r2, g2, b2)) {
 						r = r1;
 						g = g1;
 						b = b1;
@@ -282,7 +192,7 @@ public class CPCRenderer extends AbstractRenderer {
 					break;
 				}
 
-				final int color = Gfx.getColorIndex(colorAlg, colorModel, pictureColors, r, g, b);
+				final int color = getColorIndex(pictureColors, r, g, b);
 				final int data = ((color & 1) != 0 ? bit0 : 0) | ((color & 2) != 0 ? bit1 : 0)
 						| ((color & 4) != 0 ? bit2 : 0) | ((color & 8) != 0 ? bit3 : 0);
 
@@ -4,9 +4,13 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -18,6 +22,7 @@ import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.ChecksumOutputStream;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
 
 public class CPCRunner extends AbstractRendererRunner {
@@ -26,10 +31,10 @@ public class CPCRunner extends AbstractRendererRunner {
 
 	public CPCRunner(final AbstractRenderer renderer, final String fileName) {
 		super(renderer, fileName);
-		cpc = (CPCRenderer) cpc;
+		cpc = (CPCRenderer) renderer;
 	}
 
-	private void writeAMSDOSFileHeader(final ChecksumOutputStream chk, final String fileName, final String ext,
+	private static void writeAMSDOSFileHeader(final ChecksumOutputStream chk, final String fileName, final String ext,
 			final int fileType, final int loadAddress, final int entryAddress, final int length) throws IOException {
 
 		// write file header
@@ -85,44 +90,104 @@ public class CPCRunner extends AbstractRendererRunner {
 			chk.write(0x0);
 	}
 
-	private void exportArtStudio(final String path, String fileName, final int mode) {
-		try {
-			// SCR file
-			if (fileName.length() > 8)
-				fileName = fileName.substring(0, 7);
+	public static void exportArtStudio(final CPCRenderer cpc, final String path, final String fileName, final int mode)
+			throws IOException {
+		// AMSDOS header keeps 8 characters only
+		String dosName = fileName.toUpperCase().replaceAll("[_ ]", "-");
+		if (dosName.length() > 8)
+			dosName = dosName.substring(0, 8);
 
-			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
-			ChecksumOutputStream chk = new ChecksumOutputStream(new FileOutputStream(path + fileName + ".SCR"), 8192);
-			writeAMSDOSFileHeader(chk, fileName, "SCR", 2, 0x4000, 0x4000, 0x3fff);
+		// SCR file
+		ChecksumOutputStream chk = new ChecksumOutputStream(new FileOutputStream(path + fileName + ".SCR"), 8192);
+		writeAMSDOSFileHeader(chk, dosName, "SCR", 2, 0x4000, 0x4000, 0x3fff);
 
-			// bitmap
-			for (int i = 0; i < cpc.bitmap.length; i++)
-				chk.write(cpc.bitmap[i] & 0xff);
+		// bitmap
+		for (int i = 0; i < cpc.bitmap.length; i++)
+			chk.write(cpc.bitmap[i] & 0xff);
 
-			chk.close();
+		chk.close();
 
-			// palette file
-			chk = new ChecksumOutputStream(new FileOutputStream(new File(path + fileName + ".PAL")), 8192);
-			writeAMSDOSFileHeader(chk, fileName, "PAL", 2, 0x8809, 0x8809, 239);
+		// palette file
+		chk = new ChecksumOutputStream(new FileOutputStream(new File(path + fileName + ".PAL")), 8192);
+		writeAMSDOSFileHeader(chk, dosName, "PAL", 2, 0x8809, 0x8809, 239);
 
-			chk.write(mode); // mode?
-			chk.write(0x00); // no color animation
-			chk.write(0x00); // no delay time no animation
+		chk.write(mode); // mode?
+		chk.write(0x00); // no color animation
+		chk.write(0x00); // no delay time no animation
 
-			// palette
-			final int len = cpc.pictureColors.length;
-			for (int i = 0; i < 16 / len; i++)
-				for (int j = 0; j < len; j++) {
-					final int data = cpc.colorMapping[cpc.firmwareIndexes[j]];
+		// palette
+		final int len = cpc.pictureColors.length;
+		for (int i = 0; i < 16 / len; i++)
+			for (int j = 0; j < len; j++) {
+				final int data = CPCRenderer.colorMapping[cpc.firmwareIndexes[j]];
 
-					for (int k = 0; k < 12; k++)
-						chk.write(data); // 12 same colors
-				}
+				for (int k = 0; k < 12; k++)
+					chk.write(data); // 12 same colors
+			}
+
+		for (int i = 0; i < 44; i++)
+			chk.write(0x0);
+
+		chk.close();
+	}
+
+	// SCR bitmap and PAL palette, both after AMSDOS header
+	public static BufferedImage importArtStudio(final String path, final String fileName) throws IOException {
+		final byte scr[] = Files.readAllBytes(Paths.get(path + fileName + ".SCR"));
+		final byte pal[] = Files.readAllBytes(Paths.get(path + fileName + ".PAL"));
+
+		if (scr.length < 128 + 16000 || pal.length < 128 + 3 + 16 * 12)
+			throw new IOException("Not an Art Studio picture: " + fileName);
+
+		final int mode = pal[128];
 
-			for (int i = 0; i < 44; i++)
-				chk.write(0x0);
+		// hardware colors of pens, 12 same colors each
+		final int pens[] = new int[16];
+		for (int i = 0; i < 16; i++) {
+			final int data = pal[128 + 3 + i * 12] & 0xff;
+
+			for (int j = 0; j < CPCRenderer.colorMapping.length; j++)
+				if (CPCRenderer.colorMapping[j] == data)
+					pens[i] = CPCRenderer.colors[j];
+		}
+
+		final BufferedImage image = Gfx.rgbImage(320, 200);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		for (int y = 0; y < 200; y++) {
+			final int offset = 128 + (y >> 3) * 80 + (y & 7) * 2048;
+			final int p = y * 320 * 3;
+
+			for (int x = 0; x < 80; x++) {
+				final int data = scr[offset + x] & 0xff;
+
+				if (mode == 0) // 2 wide pixels in byte
+					for (int x0 = 0; x0 < 2; x0++) {
+						final int color = pens[((data >> (7 - x0)) & 1) | (((data >> (3 - x0)) & 1) << 1)
+								| (((data >> (5 - x0)) & 1) << 2) | (((data >> (1 - x0)) & 1) << 3)];
+						final int i = p + ((x << 2) + (x0 << 1)) * 3;
+
+						Gfx.setPixel(pixels, i, color);
+						Gfx.setPixel(pixels, i + 3, color);
+					}
+				else // 4 pixels in byte
+					for (int x0 = 0; x0 < 4; x0++)
+						Gfx.setPixel(pixels, p + ((x << 2) + x0) * 3,
+								pens[((data >> (7 - x0)) & 1) | (((data >> (3 - x0)) & 1) << 1)]);
+			}
+		}
+
+		return image;
+	}
+
+	private void exportArtStudio(final String path, String fileName, final int mode) {
+		try {
+			if (fileName.length() > 8)
+				fileName = fileName.substring(0, 7);
+
+			fileName = fileName.toUpperCase().replaceAll("[_ ]", "-");
+			exportArtStudio(cpc, path, fileName, mode);
 
-			chk.close();
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
@@ -0,0 +1,62 @@
+package pl.dido.image.petscii;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class PatternCache {
+	// direct mapped cache of 8x8 patterns (one bit per pixel) and character codes
+	// hash of pattern is reversible, entry keeps the rest of hash and code in one long
+	private static final long EMPTY = 0;
+	private static final long VALID = 0x100;
+
+	private final long entries[];
+	private final int bits;
+	private final int size;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public PatternCache() {
+		this(14); // 16384 entries
+	}
+
+	public PatternCache(final int bits) {
+		if (bits < 9 || bits > 24)
+			throw new IllegalArgumentException("Unsupported cache bits: " + bits);
+
+		this.bits = bits;
+		size = (1 << bits) - 1;
+
+		entries = new long[size + 1];
+	}
+
+	private static final long hash(final long pattern) {
+		final long h = pattern * 0x9e3779b97f4a7c15L;
+		return h ^ (h >>> 32);
+	}
+
+	public final void put(final long pattern, final int code) {
+		final long h = hash(pattern);
+		entries[(int) h & size] = ((h >>> bits) << 9) | VALID | (code & 0xff);
+	}
+
+	public final int get(final long pattern) {
+		final long h = hash(pattern);
+		final long entry = entries[(int) h & size];
+
+		if (entry != EMPTY && (entry >>> 9) == (h >>> bits)) {
+			hits.increment();
+			return (int) entry & 0xff;
+		}
+
+		misses.increment();
+		return -1;
+	}
+
+	public final long getHits() {
+		return hits.sum();
+	}
+
+	public final long getMisses() {
+		return misses.sum();
+	}
+}
@@ -5,15 +5,17 @@ import pl.dido.image.utils.Config;
 public class PetsciiConfig extends Config {
 	
 	public enum NETWORK {
-		L1, L2;
+		L1, L2, HAMMING;
 	};
 	
 	public NETWORK network;
+	public boolean pattern_cache; // character codes of known patterns shared by all pictures, L1 only
 		
 	public PetsciiConfig() {
 		super();
 		
 		network = NETWORK.L1;
+		pattern_cache = true;
 		color_alg = NEAREST_COLOR.PERCEPTED;		
 		
 		dithering = false;
@@ -33,6 +35,9 @@ public class PetsciiConfig extends Config {
 		case L2:
 			n = "L2 ";
 			break;
+		case HAMMING:
+			n = "HAMMING ";
+			break;
 		default:
 			n = "SOFTMAX ";
 		}
@@ -50,10 +50,24 @@ public class PetsciiGui {
 		});
 
 		petsciiC64.add(rdbtnL2Button);
+
+		final JRadioButton rdbtnHammingButton = new JRadioButton("Nearest character bitmap, no network");
+		rdbtnHammingButton.setToolTipText("Fastest, least different pixels");
+		rdbtnHammingButton.setFont(GuiUtils.std);
+		rdbtnHammingButton.setBounds(46, 162, 331, 23);
+		rdbtnHammingButton.setSelected(config.network == NETWORK.HAMMING);
+		rdbtnHammingButton.addActionListener(new ActionListener() {
+			public void actionPerformed(final ActionEvent e) {
+				config.network = NETWORK.HAMMING;
+			}
+		});
+
+		petsciiC64.add(rdbtnHammingButton);
 		
 		final ButtonGroup groupResolution = new ButtonGroup();
 		groupResolution.add(rdbtnL1Button);
 		groupResolution.add(rdbtnL2Button);
+		groupResolution.add(rdbtnHammingButton);
 
 		final Canvas c64Logo = new ImageCanvas("c64.png");
 		c64Logo.setBounds(381, 7, 100, 96);
@@ -2,11 +2,11 @@ package pl.dido.image.petscii;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Arrays;
 
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
-import pl.dido.image.utils.neural.Dataset;
 import pl.dido.image.utils.neural.HL1Network;
 import pl.dido.image.utils.neural.HL2Network;
 import pl.dido.image.utils.neural.Network;
@@ -14,7 +14,7 @@ import pl.dido.image.utils.neural.Network;
 public class PetsciiRenderer extends AbstractRenderer {
 
 	// C64 palette
-	private final static int colors[] = new int[] { 0, 0xFFFFFF, 0x68372B, 0x70A4B2, 0x6F3D86, 0x588D43, 0x352879,
+	protected final static int colors[] = new int[] { 0, 0xFFFFFF, 0x68372B, 0x70A4B2, 0x6F3D86, 0x588D43, 0x352879,
 			0xB8C76F, 0x6F4F25, 0x433900, 0x9A6759, 0x444444, 0x6C6C6C, 0x9AD284, 0x6C5EB5, 0x959595 };
 
 	private final static int power2[] = new int[] { 128, 64, 32, 16, 8, 4, 2, 1 };
@@ -24,6 +24,12 @@ public class PetsciiRenderer extends AbstractRenderer {
 
 	private final static String PETSCII_CHARSET = "petscii.bin";
 
+	// loaded once, batch forward does not modify networks
+	private final static Network networks[] = new Network[PetsciiConfig.NETWORK.values().length];
+	private final static PatternCache patterns[] = new PatternCache[networks.length];
+	private static byte charset[];
+	private static long glyphs[]; // charset bitmaps, bit order of the pattern masks
+
 	public int bitmap[] = new int[40 * 200];
 	public int screen[] = new int[1000];
 
@@ -46,23 +52,10 @@ public class PetsciiRenderer extends AbstractRenderer {
 
 	@Override
 	protected void setupPalette() {
-		switch (colorModel) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = colors[i] & 0x0000ff; // blue
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = (colors[i] & 0xff0000) >> 16; // red
-			}
-			break;
-		case BufferedImage.TYPE_INT_RGB:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = colors[i] & 0x0000ff; // blue
-			}
-			break;
-		default:
-			throw new RuntimeException("Unsupported Pixel format !!!");
+		for (int i = 0; i < colors.length; i++) {
+			palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
+			palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
+			palette[i][2] = colors[i] & 0x0000ff; // blue
 		}
 	}
 
@@ -71,15 +64,14 @@ public class PetsciiRenderer extends AbstractRenderer {
 		petscii();
 	}
 
-	protected void petscii() {
-		// matches pattern with petscii
-		final Network neural;
+	protected static synchronized Network getNetwork(final PetsciiConfig.NETWORK type) {
+		Network neural = networks[type.ordinal()];
+		if (neural != null)
+			return neural;
 
-		// charset 8x8 pixels per char
-		final byte charset[];
 		final String networkFile;
 
-		switch (((PetsciiConfig) config).network) {
+		switch (type) {
 		case L2:
 			neural = new HL2Network(64, 128, 256);
 			networkFile = PETSCII_NETWORK_L2;
@@ -93,16 +85,122 @@ public class PetsciiRenderer extends AbstractRenderer {
 		}
 
 		try {
-			charset = Utils.loadCharset(Utils.getResourceAsStream(PETSCII_CHARSET));
 			neural.load(Utils.getResourceAsStream(networkFile));
 		} catch (final IOException e) {
 			// mass hysteria
 			throw new RuntimeException(e);
 		}
 
-		// tiles screen and pattern
+		networks[type.ordinal()] = neural;
+		return neural;
+	}
+
+	protected static synchronized PatternCache getPatternCache(final PetsciiConfig.NETWORK type) {
+		PatternCache cache = patterns[type.ordinal()];
+
+		if (cache == null) {
+			cache = new PatternCache();
+			patterns[type.ordinal()] = cache;
+		}
+
+		return cache;
+	}
+
+	public static synchronized long getPatternHits() {
+		long hits = 0;
+
+		for (final PatternCache cache : patterns)
+			if (cache != null)
+				hits += cache.getHits();
+
+		return hits;
+	}
+
+	public static synchronized long getPatternMisses() {
+		long misses = 0;
+
+		for (final PatternCache cache : patterns)
+			if (cache != null)
+				misses += cache.getMisses();
+
+		return misses;
+	}
+
+	protected static synchronized long[] getGlyphs() {
+		if (glyphs == null) {
+			final byte charset[] = getCharset();
+			final long g[] = new long[256];
+
+			for (int code = 0; code < 256; code++) {
+				long mask = 0;
+
+				for (int y0 = 0; y0 < 8; y0++) {
+					final int charByte = charset[code * 8 + y0];
+
+					for (int x0 = 0; x0 < 8; x0++)
+						if ((charByte & power2[x0]) != 0)
+							mask |= 1L << ((y0 << 3) + x0);
+				}
+
+				g[code] = mask;
+			}
+
+			glyphs = g;
+		}
+
+		return glyphs;
+	}
+
+	// character with least different pixels, upper half of charset holds inverted glyphs
+	protected static int nearestGlyph(final long glyphs[], final long mask) {
+		int code = 0;
+		int min = Long.bitCount(mask ^ glyphs[0]);
+
+		for (int i = 1; i < 256 && min > 0; i++) {
+			final int d = Long.bitCount(mask ^ glyphs[i]);
+
+			if (d < min) {
+				min = d;
+				code = i;
+			}
+		}
+
+		return code;
+	}
+
+	protected static synchronized byte[] getCharset() {
+		if (charset == null)
+			try {
+				charset = Utils.loadCharset(Utils.getResourceAsStream(PETSCII_CHARSET));
+			} catch (final IOException e) {
+				// mass hysteria
+				throw new RuntimeException(e);
+			}
+
+		return charset;
+	}
+
+	protected void petscii() {
+		// matches pattern with petscii
+		final PetsciiConfig.NETWORK type = ((PetsciiConfig) config).network;
+
+		final boolean hamming = type == PetsciiConfig.NETWORK.HAMMING;
+
+		// L2 result of a cell depends on previous cells, all are matched in screen order
+		final boolean ordered = type == PetsciiConfig.NETWORK.L2;
+
+		final Network neural = hamming ? null : getNetwork(type);
+		final PatternCache cache = !hamming && !ordered && ((PetsciiConfig) config).pattern_cache
+				? getPatternCache(type)
+				: null;
+
+		// charset 8x8 pixels per char
+		final byte charset[] = getCharset();
+
+		// tile screen and binary patterns of all cells
 		final int work[] = new int[64 * 3];
-		final float tile[] = new float[64];
+		final float tiles[] = new float[1000 * 64];
+		final long masks[] = new long[1000];
 
 		// calculate average
 		int nr = 0, ng = 0, nb = 0, count = 0;
@@ -114,8 +212,8 @@ public class PetsciiRenderer extends AbstractRenderer {
 			nb = pixels[i + 2] & 0xff;
 
 			// dimmer better
-			occurrence[Gfx.getColorIndex(colorAlg, colorModel, palette, nr, ng, nb)] += (255
-					- Gfx.getLumaByCM(colorModel, nr, ng, nb));
+			occurrence[getColorIndex(nr, ng, nb)] += (255
+					- Gfx.getLuma(nr, ng, nb));
 		}
 
 		// get background color with maximum occurrence
@@ -135,7 +233,7 @@ public class PetsciiRenderer extends AbstractRenderer {
 		ng = palette[k][1];
 		nb = palette[k][2];
 
-		final float backLuma = Gfx.getLumaByCM(colorModel, nr, ng, nb);
+		final float backLuma = Gfx.getLuma(nr, ng, nb);
 
 		for (int y = 0; y < 200; y += 8) {
 			final int p = y * 320 * 3;
@@ -143,6 +241,10 @@ public class PetsciiRenderer extends AbstractRenderer {
 			for (int x = 0; x < 320; x += 8) {
 				final int offset = p + x * 3;
 
+				final int address = (y >> 3) * 40 + (x >> 3);
+				final int tile = address << 6;
+
+				long mask = 0;
 				int index = 0, f = 0;
 				float max_distance = 0;
 
@@ -159,10 +261,10 @@ public class PetsciiRenderer extends AbstractRenderer {
 						work[index++] = g;
 						work[index++] = b;
 
-						final float distance = Math.abs(Gfx.getLumaByCM(colorModel, r, g, b) - backLuma);
+						final float distance = Math.abs(Gfx.getLuma(r, g, b) - backLuma);
 						if (max_distance < distance) {
 							max_distance = distance;
-							f = Gfx.getColorIndex(colorAlg, colorModel, palette, r, g, b);
+							f = getColorIndex(r, g, b);
 						}
 					}
 				}
@@ -182,31 +284,49 @@ public class PetsciiRenderer extends AbstractRenderer {
 						final int b = work[pyx0 + 2];
 
 						// fore or background color?
-						final float df = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, fr, fg, fb);
-						final float db = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, nr, ng, nb);
+						final float df = Gfx.getDistance(colorAlg, r, g, b, fr, fg, fb);
+						final float db = Gfx.getDistance(colorAlg, r, g, b, nr, ng, nb);
 
 						// ones as color of the bright pixels
-						tile[(y0 << 3) + x0] = (df <= db) ? 1 : 0;
+						if (df <= db) {
+							tiles[tile + (y0 << 3) + x0] = 1;
+							mask |= 1L << ((y0 << 3) + x0);
+						}
 					}
 
-				// pattern match character
-				neural.forward(new Dataset(tile));
-				final float[] result = neural.getResult();
+				// foreground color
+				nibble[address] = f;
+				masks[address] = mask;
+			}
+		}
 
-				int code = 0;
-				float value = result[0];
+		if (hamming) {
+			final long glyphs[] = getGlyphs();
 
-				// get code of character in charset
-				for (int i = 1; i < 256; i++)
-					if (result[i] > value) {
-						code = i;
-						value = result[i];
-					}
+			for (int i = 0; i < 1000; i++)
+				screen[i] = nearestGlyph(glyphs, masks[i]);
+		} else if (ordered) {
+			final float result[] = new float[1000 * 256];
+			neural.forward(tiles, 1000, result);
 
-				// colors
+			for (int i = 0; i < 1000; i++)
+				screen[i] = code(result, i * 256);
+		} else
+			match(neural, cache, tiles, masks);
+
+		for (int y = 0; y < 200; y += 8) {
+			final int p = y * 320 * 3;
+
+			for (int x = 0; x < 320; x += 8) {
+				final int offset = p + x * 3;
 				final int address = (y >> 3) * 40 + (x >> 3);
-				nibble[address] = f;
-				screen[address] = code;
+
+				final int code = screen[address];
+
+				final int cf[] = palette[nibble[address]];
+				final int fr = cf[0];
+				final int fg = cf[1];
+				final int fb = cf[2];
 
 				// draw character
 				for (int y0 = 0; y0 < 8; y0++) {
@@ -231,4 +351,77 @@ public class PetsciiRenderer extends AbstractRenderer {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// character codes of all cells, network only for patterns not seen before
+	protected void match(final Network neural, final PatternCache cache, final float tiles[], final long masks[]) {
+		final int len = masks.length;
+
+		// distinct unknown patterns and their first cell
+		final int first[] = new int[len];
+		final int slot[] = new int[len];
+
+		final long known[] = new long[2048];
+		final int knownSlot[] = new int[2048];
+		Arrays.fill(knownSlot, -1);
+
+		int count = 0;
+		for (int i = 0; i < len; i++) {
+			final int code = cache != null ? cache.get(masks[i]) : -1;
+
+			if (code >= 0) {
+				screen[i] = code;
+				slot[i] = -1;
+
+				continue;
+			}
+
+			// same pattern in the picture
+			int h = (int) ((masks[i] * 0x9e3779b97f4a7c15L) >>> 53);
+			while (knownSlot[h] >= 0 && known[h] != masks[i])
+				h = (h + 1) & 2047;
+
+			if (knownSlot[h] < 0) {
+				known[h] = masks[i];
+				knownSlot[h] = count;
+
+				if (count != i)
+					System.arraycopy(tiles, i << 6, tiles, count << 6, 64);
+
+				first[count++] = i;
+			}
+
+			slot[i] = knownSlot[h];
+		}
+
+		// pattern match all unknown at once
+		final float result[] = new float[count * 256];
+		neural.forward(tiles, count, result);
+
+		final int codes[] = new int[count];
+		for (int s = 0; s < count; s++) {
+			final int code = code(result, s * 256);
+
+			codes[s] = code;
+			if (cache != null)
+				cache.put(masks[first[s]], code);
+		}
+
+		for (int i = 0; i < len; i++)
+			if (slot[i] >= 0)
+				screen[i] = codes[slot[i]];
+	}
+
+	// code of character in charset with highest network output
+	protected static int code(final float result[], final int r) {
+		int code = 0;
+		float value = result[r];
+
+		for (int i = 1; i < 256; i++)
+			if (result[r + i] > value) {
+				code = i;
+				value = result[r + i];
+			}
+
+		return code;
+	}
+}
@@ -4,11 +4,15 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -19,6 +23,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
 
 public class PetsciiRunner extends AbstractRendererRunner {
@@ -30,37 +35,71 @@ public class PetsciiRunner extends AbstractRendererRunner {
 		petscii = (PetsciiRenderer) renderer;
 	}
 
-	private void petsciiExportPRG(final String fileName) {
-		try {
-			final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("petscii.prg"), 8192);
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+	public static void petsciiExportPRG(final PetsciiRenderer petscii, final String fileName) throws IOException {
+		final BufferedInputStream in = new BufferedInputStream(Utils.getResourceAsStream("petscii.prg"), 8192);
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+
+		// loading address BASIC
+		out.write(0x01);
+		out.write(0x08);
+
+		int data;
+		in.read(); // skip loading address
+		in.read();
+
+		while ((data = in.read()) != -1)
+			out.write(data);
 
-			// loading address BASIC
-			out.write(0x01);
-			out.write(0x08);
+		in.close();
 
-			int data;
-			in.read(); // skip loading address
-			in.read();
+		// first background color
+		out.write(petscii.backgroundColor & 0xf);
+
+		// bitmap
+		for (int i = 0; i < 1000; i++)
+			out.write(petscii.screen[i] & 0xff);
+
+		// color nibbles
+		for (int i = 0; i < 1000; i++)
+			out.write(petscii.nibble[i] & 0xf);
+
+		out.close();
+	}
 
-			while ((data = in.read()) != -1)
-				out.write(data);
+	// executable ends with background, screen codes and color nibbles
+	public static BufferedImage petsciiImportPRG(final String fileName) throws IOException {
+		final byte data[] = Files.readAllBytes(Paths.get(fileName));
+		if (data.length < 2003)
+			throw new IOException("Not a PETSCII executable: " + fileName);
 
-			in.close();
+		final int offset = data.length - 2001;
+		final int background = PetsciiRenderer.colors[data[offset] & 0xf];
 
-			// first background color
-			out.write(petscii.backgroundColor & 0xf);
+		final byte charset[] = PetsciiRenderer.getCharset();
 
-			// bitmap
-			for (int i = 0; i < 1000; i++)
-				out.write(petscii.screen[i] & 0xff);
+		final BufferedImage image = Gfx.rgbImage(320, 200);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
 
-			// color nibbles
-			for (int i = 0; i < 1000; i++)
-				out.write(petscii.nibble[i] & 0xf);
+		for (int cell = 0; cell < 1000; cell++) {
+			final int code = data[offset + 1 + cell] & 0xff;
+			final int color = PetsciiRenderer.colors[data[offset + 1001 + cell] & 0xf];
 
-			out.close();
+			final int p = ((cell / 40) * 320 * 8 + (cell % 40) * 8) * 3;
 
+			for (int y0 = 0; y0 < 8; y0++) {
+				final int bits = charset[code * 8 + y0] & 0xff;
+
+				for (int x0 = 0; x0 < 8; x0++)
+					Gfx.setPixel(pixels, p + (y0 * 320 + x0) * 3, (bits & (0x80 >> x0)) != 0 ? color : background);
+			}
+		}
+
+		return image;
+	}
+
+	private void petsciiExportPRG(final String fileName) {
+		try {
+			petsciiExportPRG(petscii, fileName);
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
@@ -2,8 +2,11 @@ package pl.dido.image.renderer;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import pl.dido.image.amiga.AmigaConfig;
+import pl.dido.image.utils.ColorMatcher;
 import pl.dido.image.utils.Config;
 import pl.dido.image.utils.Config.NEAREST_COLOR;
 import pl.dido.image.utils.Gfx;
@@ -22,7 +25,11 @@ public abstract class AbstractRenderer {
 	protected NEAREST_COLOR colorAlg;
 
 	public Config config;
-	public int colorModel;
+
+	// color search of every used palette
+	private final Map<int[][], ColorMatcher> matchers = new IdentityHashMap<int[][], ColorMatcher>();
+
+	private volatile ColorMatcher matcher; // last used
 
 	private void initialize(final Config config) {
 		// copy of configuration
@@ -47,11 +54,10 @@ public abstract class AbstractRenderer {
 		setImage(image);
 	}
 
+	// any picture becomes interleaved r, g, b bytes, no pixel format is checked later
 	public void setImage(final BufferedImage image) {
-		this.image = scaleImage(image);
-
+		this.image = scaleImage(Gfx.toRGB(image));
 		pixels = ((DataBufferByte) this.image.getRaster().getDataBuffer()).getData();
-		colorModel = image.getType();
 	}
 
 	public BufferedImage getImage() {
@@ -75,14 +81,14 @@ public abstract class AbstractRenderer {
 		// contrast correction
 		switch (config.highContrast) {
 		case HE:
-			Gfx.HE(pixels, colorModel);
+			Gfx.HE(pixels);
 			break;
 		case CLAHE:
 			final int window = config instanceof AmigaConfig ? 16 : 8;
-			Gfx.CLAHE(pixels, colorModel, window, config.details, width, height);
+			Gfx.CLAHE(pixels, window, config.details, width, height, config.parallel);
 			break;
 		case SWAHE:
-			Gfx.SWAHE(pixels, colorModel, config.windowSize, config.details, width, height);
+			Gfx.SWAHE(pixels, config.windowSize, config.details, width, height);
 			break;
 		default:
 			break;
@@ -101,10 +107,56 @@ public abstract class AbstractRenderer {
 	protected abstract void setupPalette();
 
 	protected void imageDithering() {
-		Gfx.dithering(pixels, colorModel, palette, config);
+		Gfx.dithering(pixels, palette, getColorMatcher(palette), config);
 	}
 
 	protected int getColorIndex(final int r, final int g, final int b) {
-		return Gfx.getColorIndex(colorAlg, colorModel, palette, r, g, b);
+		return getColorIndex(palette, r, g, b);
+	}
+
+	protected int getColorIndex(final int palette[][], final int r, final int g, final int b) {
+		return getColorMatcher(palette).getIndex(r, g, b);
+	}
+
+	protected ColorMatcher getColorMatcher(final int palette[][]) {
+		ColorMatcher m = matcher;
+		if (m != null && m.getPalette() == palette)
+			return m;
+
+		synchronized (matchers) {
+			m = matchers.get(palette);
+
+			if (m == null) {
+				m = new ColorMatcher(palette, colorAlg, config);
+				matchers.put(palette, m);
+			}
+		}
+
+		matcher = m;
+		return m;
+	}
+
+	public long getCacheHits() {
+		long hits = 0;
+
+		synchronized (matchers) {
+			for (final ColorMatcher m : matchers.values())
+				if (m.getCache() != null)
+					hits += m.getCache().getHits();
+		}
+
+		return hits;
+	}
+
+	public long getCacheMisses() {
+		long misses = 0;
+
+		synchronized (matchers) {
+			for (final ColorMatcher m : matchers.values())
+				if (m.getCache() != null)
+					misses += m.getCache().getMisses();
+		}
+
+		return misses;
 	}
 }
\ No newline at end of file
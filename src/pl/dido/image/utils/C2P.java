@@ -0,0 +1,97 @@
+package pl.dido.image.utils;
+
+/**
+ * Chunky to planar conversion and back. Renderers keep one palette index (or HAM code) per pixel, every 8
+ * pixels are packed into long and bit transposed (8x8 matrix in three swap steps), so each byte of
+ * result holds one plane of these pixels, first pixel in the highest bit.
+ */
+public class C2P {
+
+	// plane p of pixels i..i+7 is byte at bits 8p of result
+	private static final long transpose(final byte chunky[], final int i) {
+		return transpose(((chunky[i] & 0xffL) << 56) | ((chunky[i + 1] & 0xffL) << 48)
+				| ((chunky[i + 2] & 0xffL) << 40) | ((chunky[i + 3] & 0xffL) << 32) | ((chunky[i + 4] & 0xffL) << 24)
+				| ((chunky[i + 5] & 0xffL) << 16) | ((chunky[i + 6] & 0xffL) << 8) | (chunky[i + 7] & 0xffL));
+	}
+
+	// transpose is its own inverse, planes at bits 8p give pixels from the highest byte
+	private static final long transpose(long x) {
+		// swap 1x1, 2x2 and 4x4 blocks across diagonal
+		long t = (x ^ (x >>> 7)) & 0x00aa00aa00aa00aaL;
+		x ^= t ^ (t << 7);
+
+		t = (x ^ (x >>> 14)) & 0x0000cccc0000ccccL;
+		x ^= t ^ (t << 14);
+
+		t = (x ^ (x >>> 28)) & 0x00000000f0f0f0f0L;
+		x ^= t ^ (t << 28);
+
+		return x;
+	}
+
+	// ILBM body, every row is followed by rows of all planes
+	public static final byte[] lineInterleaved(final byte chunky[], final int width, final int height, final int planes) {
+		final int bytes = width >> 3; // row of one plane
+		final int line = bytes * planes;
+		final byte result[] = new byte[line * height];
+
+		for (int y = 0; y < height; y++) {
+			final int p = y * width;
+			final int o = y * line;
+
+			for (int x = 0; x < bytes; x++) {
+				final long t = transpose(chunky, p + (x << 3));
+
+				for (int plane = 0, i = o + x; plane < planes; plane++, i += bytes)
+					result[i] = (byte) (t >>> (plane << 3));
+			}
+		}
+
+		return result;
+	}
+
+	// pixels of ILBM body, planes above given ones are zero
+	public static final byte[] lineDeinterleaved(final byte bitplanes[], final int width, final int height,
+			final int planes) {
+		final int bytes = width >> 3; // row of one plane
+		final int line = bytes * planes;
+		final byte chunky[] = new byte[width * height];
+
+		for (int y = 0; y < height; y++) {
+			final int p = y * width;
+			final int o = y * line;
+
+			for (int x = 0; x < bytes; x++) {
+				long planar = 0;
+				for (int plane = 0, i = o + x; plane < planes; plane++, i += bytes)
+					planar |= (bitplanes[i] & 0xffL) << (plane << 3);
+
+				final long t = transpose(planar);
+				for (int k = 0, i = p + (x << 3); k < 8; k++, i++)
+					chunky[i] = (byte) (t >>> (56 - (k << 3)));
+			}
+		}
+
+		return chunky;
+	}
+
+	// Atari ST screen, every 16 pixels are words of all planes, big endian
+	public static final byte[] wordInterleaved(final byte chunky[], final int width, final int height, final int planes) {
+		final int words = (width * height) >> 4;
+		final byte result[] = new byte[words * planes * 2];
+
+		for (int w = 0, p = 0, o = 0; w < words; w++, p += 16) {
+			final long hi = transpose(chunky, p);
+			final long lo = transpose(chunky, p + 8);
+
+			for (int plane = 0; plane < planes; plane++, o += 2) {
+				final int shift = plane << 3;
+
+				result[o] = (byte) (hi >>> shift);
+				result[o + 1] = (byte) (lo >>> shift);
+			}
+		}
+
+		return result;
+	}
+}
@@ -1,57 +1,100 @@
 package pl.dido.image.utils;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
 public class ColorCache {
 	// two way associative fastest cache
+	// entry keeps tag and data in one int, concurrent access never mixes them
+	private static final int EMPTY = -1;
+	private static final int DATA_BITS = 12; // up to 4096 palette colors
+	private static final int DATA_MASK = (1 << DATA_BITS) - 1;
+
 	private final int way0[]; // cache 0 way
 	private final int way1[]; // cache 1 way
 
-	private final int tag0[]; // hashcode for 0 way
-	private final int tag1[]; // hashcode for 1 way
-
-	private final byte lru[]; // lru
-	private final int size = 0x1ff; // 512 entries
+	private final byte lru[]; // recently used way
+	private final int bits;
+	private final int size;
 
-	private int index;
-	private int hash;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
 
 	public ColorCache() {
+		this(9); // 512 entries
+	}
+
+	public ColorCache(final int bits) {
+		if (bits < 5 || bits > 12)
+			throw new IllegalArgumentException("Unsupported cache bits: " + bits);
+
+		this.bits = bits;
+		size = (1 << bits) - 1;
+
 		way0 = new int[size + 1];
 		way1 = new int[size + 1];
 
-		tag0 = new int[size + 1];
-		tag1 = new int[size + 1];
+		Arrays.fill(way0, EMPTY);
+		Arrays.fill(way1, EMPTY);
 
 		lru = new byte[size + 1];
 	}
 
+	private final int index(final int rgb) {
+		return (rgb ^ (rgb >>> 12)) & size;
+	}
+
 	public final int put(final int r, final int g, final int b, final int data) {
-		index = ((b & 7) << 6) | ((r & 7) << 3) | (g & 7);
-		hash = (r << 16) | (g << 8) | b; 
-				
-		if (lru[index] < 0) {
-			// < 0
-			this.tag1[index] = hash;
-			this.way1[index] = data;
+		if (((r | g | b) & ~0xff) != 0 || (data & ~DATA_MASK) != 0)
+			return data;
+
+		final int rgb = (r << 16) | (g << 8) | b;
+		final int index = index(rgb);
+		final int entry = ((rgb >>> bits) << DATA_BITS) | data;
+
+		if (lru[index] == 0) {
+			way1[index] = entry;
+			lru[index] = 1;
 		} else {
-			// > 0
-			this.tag0[index] = hash;
-			this.way0[index] = data;
+			way0[index] = entry;
+			lru[index] = 0;
 		}
-		
+
 		return data;
 	}
 
 	public final int get(final int r, final int g, final int b) {
-		index = ((b & 7) << 6) | ((r & 7) << 3) | (g & 7);		
-		hash = (r << 16) | (g << 8) | b; 
-		
-		if (tag0[index] == hash) {
-			lru[index]--;
-			return way0[index];
-		} else if (tag1[index] == hash) {
-			lru[index]++;
-			return way1[index];
-		} else
-			return -1;
+		if (((r | g | b) & ~0xff) == 0) {
+			final int rgb = (r << 16) | (g << 8) | b;
+			final int index = index(rgb);
+			final int tag = rgb >>> bits;
+
+			final int entry0 = way0[index];
+			if (entry0 != EMPTY && (entry0 >>> DATA_BITS) == tag) {
+				lru[index] = 0;
+				hits.increment();
+
+				return entry0 & DATA_MASK;
+			}
+
+			final int entry1 = way1[index];
+			if (entry1 != EMPTY && (entry1 >>> DATA_BITS) == tag) {
+				lru[index] = 1;
+				hits.increment();
+
+				return entry1 & DATA_MASK;
+			}
+		}
+
+		misses.increment();
+		return -1;
+	}
+
+	public final long getHits() {
+		return hits.sum();
+	}
+
+	public final long getMisses() {
+		return misses.sum();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package pl.dido.image.utils;
+
+import java.util.Arrays;
+
+public class ColorHistogram {
+	// open addressing table of rgb colors and their counts
+	// colors are kept in order of first appearance in the picture
+	private static final int EMPTY = -1;
+
+	private int keys[]; // rgb color or empty
+	private int slots[]; // position in order of appearance
+
+	private int colors[]; // unique rgb colors
+	private int counts[];
+
+	private int mask;
+	private int size = 0;
+
+	public ColorHistogram() {
+		this(1024);
+	}
+
+	public ColorHistogram(final int capacity) {
+		int len = 16;
+		while (len < capacity * 2)
+			len <<= 1;
+
+		allocate(len);
+
+		colors = new int[len >> 1];
+		counts = new int[len >> 1];
+	}
+
+	private void allocate(final int len) {
+		mask = len - 1;
+
+		keys = new int[len];
+		slots = new int[len];
+
+		Arrays.fill(keys, EMPTY);
+	}
+
+	// every skip pixel, components rounded to the nearest level of bits depth (8 - exact colors)
+	public static ColorHistogram build(final byte rgb[], final int skip, final int bits) {
+		final int len = rgb.length;
+		final ColorHistogram histogram = new ColorHistogram(Math.min(len / 3, 65536));
+
+		final float scale = 255f / ((1 << bits) - 1);
+
+		for (int i = 0; i < len; i += 3)
+			if (skip == 0 || i % skip == 0) {
+				int r = rgb[i] & 0xff;
+				int g = rgb[i + 1] & 0xff;
+				int b = rgb[i + 2] & 0xff;
+
+				if (bits < 8) {
+					r = Math.round(Math.round(r / scale) * scale);
+					g = Math.round(Math.round(g / scale) * scale);
+					b = Math.round(Math.round(b / scale) * scale);
+				}
+
+				histogram.add((r << 16) | (g << 8) | b);
+			}
+
+		return histogram;
+	}
+
+	public final void add(final int rgb) {
+		int i = hash(rgb) & mask;
+
+		for (;;) {
+			final int key = keys[i];
+
+			if (key == rgb) {
+				counts[slots[i]]++;
+				return;
+			}
+
+			if (key == EMPTY)
+				break;
+
+			i = (i + 1) & mask;
+		}
+
+		if (size == colors.length) {
+			grow();
+			add(rgb);
+
+			return;
+		}
+
+		keys[i] = rgb;
+		slots[i] = size;
+
+		colors[size] = rgb;
+		counts[size++] = 1;
+	}
+
+	private final void grow() {
+		allocate((mask + 1) << 1);
+
+		colors = Arrays.copyOf(colors, colors.length << 1);
+		counts = Arrays.copyOf(counts, counts.length << 1);
+
+		for (int s = 0; s < size; s++) {
+			int i = hash(colors[s]) & mask;
+
+			while (keys[i] != EMPTY)
+				i = (i + 1) & mask;
+
+			keys[i] = colors[s];
+			slots[i] = s;
+		}
+	}
+
+	private static final int hash(final int rgb) {
+		final int h = rgb * 0x9e3779b1;
+		return h ^ (h >>> 16);
+	}
+
+	public final int size() {
+		return size;
+	}
+
+	public final int getColor(final int i) {
+		return colors[i];
+	}
+
+	public final int getCount(final int i) {
+		return counts[i];
+	}
+}
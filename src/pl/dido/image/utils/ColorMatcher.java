@@ -0,0 +1,50 @@
+package pl.dido.image.utils;
+
+import pl.dido.image.utils.Config.NEAREST_COLOR;
+
+/**
+ * Nearest palette color search for one palette and color metric. Lookup table resolves most
+ * colors directly, remaining ones go through the color cache before the palette search.
+ */
+public class ColorMatcher {
+
+	private final int palette[][];
+	private final NEAREST_COLOR color;
+
+	private final PaletteLUT lut;
+	private final ColorCache cache;
+
+	public ColorMatcher(final int palette[][], final NEAREST_COLOR color, final Config config) {
+		this.palette = palette;
+		this.color = color;
+
+		lut = PaletteLUT.getInstance(palette, color, config);
+		cache = config.cache_bits > 0 && palette.length <= 4096 ? new ColorCache(config.cache_bits) : null;
+	}
+
+	public final int getIndex(final int r, final int g, final int b) {
+		if (lut != null) {
+			final int index = lut.find(r, g, b);
+			if (index >= 0)
+				return index;
+		}
+
+		if (cache == null)
+			return search(r, g, b);
+
+		final int index = cache.get(r, g, b);
+		return index >= 0 ? index : cache.put(r, g, b, search(r, g, b));
+	}
+
+	private final int search(final int r, final int g, final int b) {
+		return lut != null ? lut.search(r, g, b) : Gfx.getColorIndex(color, palette, r, g, b);
+	}
+
+	public final int[][] getPalette() {
+		return palette;
+	}
+
+	public final ColorCache getCache() {
+		return cache;
+	}
+}
@@ -7,7 +7,7 @@ abstract public class Config implements Cloneable {
 	}
 
 	public enum DITHERING {
-		STD_FS, ATKINSON
+		STD_FS, ATKINSON, JJN, STUCKI, SIERRA, BURKES, BAYER2, BAYER4, BAYER8, BLUE_NOISE
 	};
 
 	public enum NEAREST_COLOR {
@@ -27,10 +27,24 @@ abstract public class Config implements Cloneable {
 	public DITHERING dither_alg;
 	public NEAREST_COLOR color_alg;
 
+	public int lut_bits; // nearest color lookup table bits per component, 0 - disabled
+	public boolean lut_exact; // full search for cells on the border of colors
+	public int cache_bits; // color cache sets 2^bits (5-12), 0 - disabled
+
+	public boolean parallel; // use all cores for single picture
+	public boolean som_histogram; // palette training on unique colors weighted by count
+
 	public Config() {
 		dither_alg = DITHERING.STD_FS;
 		color_alg = NEAREST_COLOR.PERCEPTED;
 
+		lut_bits = 6;
+		lut_exact = true;
+		cache_bits = 9;
+
+		parallel = true;
+		som_histogram = true;
+
 		dithering = false;
 		keepAspect = false;
 		
@@ -58,6 +72,30 @@ abstract public class Config implements Cloneable {
 			case STD_FS:
 				configString += "floyds ";
 				break;
+			case JJN:
+				configString += "jjn ";
+				break;
+			case STUCKI:
+				configString += "stucki ";
+				break;
+			case SIERRA:
+				configString += "sierra ";
+				break;
+			case BURKES:
+				configString += "burkes ";
+				break;
+			case BAYER2:
+				configString += "bayer2 ";
+				break;
+			case BAYER4:
+				configString += "bayer4 ";
+				break;
+			case BAYER8:
+				configString += "bayer8 ";
+				break;
+			case BLUE_NOISE:
+				configString += "noise ";
+				break;
 			}
 
 		switch (color_alg) {
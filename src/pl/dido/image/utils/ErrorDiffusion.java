@@ -0,0 +1,506 @@
+package pl.dido.image.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import pl.dido.image.utils.Config.DITHERING;
+
+/**
+ * Error diffusion of any kernel over picture or its part. Errors of the current and two next rows are
+ * kept in ring buffer, renderer gives quantizer which picks machine color of every pixel. Ordered
+ * dithering (Bayer or blue noise threshold) has independent pixels and runs in parallel over rows,
+ * diffusion of tall pictures runs rows in parallel as a wavefront, quantizer is called from many
+ * threads then.
+ */
+public class ErrorDiffusion {
+
+	public interface Quantizer {
+		// color of pixel (x, y) as c0 << 16 | c1 << 8 | c2 in pixel components order
+		int quantize(int x, int y, int r, int g, int b);
+	}
+
+	public interface RowQuantizer {
+		// colors of row y like Quantizer ones for targets r, g, b of every pixel
+		void quantize(int y, int targets[], int colors[]);
+	}
+
+	// kernels as dx, dy, weight of every neighbour and divisor of weights
+	private static final int FS[] = { 1, 0, 7, -1, 1, 3, 0, 1, 5, 1, 1, 1 };
+	private static final int ATKINSON[] = { 1, 0, 1, 2, 0, 1, -1, 1, 1, 0, 1, 1, 1, 1, 1, 0, 2, 1 };
+
+	private static final int JJN[] = { 1, 0, 7, 2, 0, 5, -2, 1, 3, -1, 1, 5, 0, 1, 7, 1, 1, 5, 2, 1, 3, -2, 2, 1, -1,
+			2, 3, 0, 2, 5, 1, 2, 3, 2, 2, 1 };
+	private static final int STUCKI[] = { 1, 0, 8, 2, 0, 4, -2, 1, 2, -1, 1, 4, 0, 1, 8, 1, 1, 4, 2, 1, 2, -2, 2, 1, -1,
+			2, 2, 0, 2, 4, 1, 2, 2, 2, 2, 1 };
+
+	private static final int SIERRA[] = { 1, 0, 5, 2, 0, 3, -2, 1, 2, -1, 1, 4, 0, 1, 5, 1, 1, 4, 2, 1, 2, -1, 2, 2, 0,
+			2, 3, 1, 2, 2 };
+	private static final int BURKES[] = { 1, 0, 8, 2, 0, 4, -2, 1, 2, -1, 1, 4, 0, 1, 8, 1, 1, 4, 2, 1, 2 };
+
+	private static final int PAD = 2; // widest kernel reach, errors outside of picture are lost
+	private static final int ROWS = 3;
+	private static final int FRACTION = 12; // fixed point weights, no division per pixel
+
+	// wavefront workers, no more than threads of the pool that runs them
+	private static final int WORKERS = Math.min(Runtime.getRuntime().availableProcessors(),
+			ForkJoinPool.getCommonPoolParallelism());
+
+	private static final int WAVEFRONT = 256; // rows of picture worth parallel diffusion
+	private static final int BLOCK = 32; // pixels of row between progress updates
+	private static final int LAG = 2 * PAD + 1; // rows never touch the same errors
+
+	private static final int SPINS = 100; // waiting for other row spins, then yields
+	private static final int YIELDS = 100; // and then parks, row it waits for may need this core
+	private static final long PARK = 20_000; // ns
+
+	private static final int SPREAD = 64; // ordered dithering amplitude without palette
+	private static final String BLUE_NOISE = "bluenoise64.bin"; // 64x64 blue noise, 256 levels
+
+	private static int blueNoise[];
+
+	private final int rows[]; // ring of rows tap falls into, 0 - current
+	private final int offsets[]; // position of tap relative to pixel
+	private final int weights[];
+	private final int taps;
+
+	private final int width;
+	private final int height;
+
+	private final int rowLength;
+	private final int errors[]; // weighted errors of 3 rows in fixed point
+
+	private int threshold[]; // ordered dithering offsets of square matrix
+	private int size; // matrix side, power of 2
+
+	private final boolean parallel;
+
+	public ErrorDiffusion(final Config config, final int palette[][], final int width, final int height) {
+		this(config.dithering ? config.dither_alg : null, palette, width, height, config.parallel);
+	}
+
+	// null algorithm - quantization only, palette sets amplitude of ordered dithering
+	public ErrorDiffusion(final DITHERING dither, final int palette[][], final int width, final int height,
+			final boolean parallel) {
+		final int kernel[];
+		final int divisor;
+
+		if (dither == null) {
+			kernel = new int[0];
+			divisor = 1;
+		} else
+			switch (dither) {
+			case BAYER2:
+			case BAYER4:
+			case BAYER8:
+				kernel = new int[0];
+				divisor = 1;
+
+				size = dither == DITHERING.BAYER2 ? 2 : dither == DITHERING.BAYER4 ? 4 : 8;
+				threshold = offsets(bayer(size), spread(palette));
+				break;
+			case BLUE_NOISE:
+				kernel = new int[0];
+				divisor = 1;
+
+				size = 64;
+				threshold = offsets(getBlueNoise(), spread(palette));
+				break;
+			case ATKINSON:
+				kernel = ATKINSON;
+				divisor = 8;
+				break;
+			case JJN:
+				kernel = JJN;
+				divisor = 48;
+				break;
+			case STUCKI:
+				kernel = STUCKI;
+				divisor = 42;
+				break;
+			case SIERRA:
+				kernel = SIERRA;
+				divisor = 32;
+				break;
+			case BURKES:
+				kernel = BURKES;
+				divisor = 32;
+				break;
+			default:
+				kernel = FS;
+				divisor = 16;
+				break;
+			}
+
+		taps = kernel.length / 3;
+
+		rows = new int[taps];
+		offsets = new int[taps];
+		weights = new int[taps];
+
+		for (int i = 0, j = 0; i < taps; i++, j += 3) {
+			offsets[i] = kernel[j] * 3;
+			rows[i] = kernel[j + 1];
+			weights[i] = Math.round((kernel[j + 2] << FRACTION) / (float) divisor);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.parallel = parallel;
+
+		rowLength = (width + 2 * PAD) * 3;
+		errors = new int[ROWS * rowLength];
+	}
+
+	// pixels of width x height area starting at offset, rows are stride bytes long
+	public final void dither(final byte pixels[], final int offset, final int stride, final Quantizer quantizer) {
+		dither(pixels, offset, stride, 0, 0, quantizer);
+	}
+
+	// left, top - position of area in picture, keeps threshold matrix aligned across cells
+	public final void dither(final byte pixels[], final int offset, final int stride, final int left, final int top,
+			final Quantizer quantizer) {
+		if (threshold != null) {
+			Parallel.forRange(0, height, parallel, new Parallel.Range() {
+				public void run(final int from, final int to) {
+					ordered(pixels, offset, stride, left, top, quantizer, from, to);
+				}
+			});
+
+			return;
+		}
+
+		// rows of a wavefront are BLOCK + LAG pixels apart, more workers would only wait
+		final int workers = Math.min(WORKERS, width / (BLOCK + LAG));
+
+		if (parallel && taps > 0 && workers > 1 && height >= WAVEFRONT) {
+			wavefront(pixels, offset, stride, workers, quantizer);
+			return;
+		}
+
+		final int base[] = new int[ROWS];
+		Arrays.fill(errors, 0);
+
+		for (int y = 0; y < height; y++) {
+			for (int i = 0; i < ROWS; i++)
+				base[i] = ((y + i) % ROWS) * rowLength + PAD * 3;
+
+			diffuse(pixels, offset + y * stride, errors, base, y, 0, width, quantizer);
+
+			// current row becomes the last one
+			Arrays.fill(errors, base[0] - PAD * 3, base[0] - PAD * 3 + rowLength, 0);
+		}
+	}
+
+	// pixels from - to of row y, base - ring positions of the row and two next ones
+	private final void diffuse(final byte pixels[], final int p, final int errors[], final int base[], final int y,
+			final int from, final int to, final Quantizer quantizer) {
+		final int row = base[0];
+
+		for (int x = from, x3 = from * 3; x < to; x++, x3 += 3) {
+			final int position = p + x3;
+			final int e = row + x3;
+
+			final int r0 = Gfx.saturate((pixels[position] & 0xff) + (errors[e] >> FRACTION));
+			final int g0 = Gfx.saturate((pixels[position + 1] & 0xff) + (errors[e + 1] >> FRACTION));
+			final int b0 = Gfx.saturate((pixels[position + 2] & 0xff) + (errors[e + 2] >> FRACTION));
+
+			final int color = quantizer.quantize(x, y, r0, g0, b0);
+
+			final int r = (color >> 16) & 0xff;
+			final int g = (color >> 8) & 0xff;
+			final int b = color & 0xff;
+
+			pixels[position] = (byte) r;
+			pixels[position + 1] = (byte) g;
+			pixels[position + 2] = (byte) b;
+
+			final int r_error = r0 - r;
+			final int g_error = g0 - g;
+			final int b_error = b0 - b;
+
+			for (int i = 0; i < taps; i++) {
+				final int t = base[rows[i]] + x3 + offsets[i];
+				final int w = weights[i];
+
+				errors[t] += r_error * w;
+				errors[t + 1] += g_error * w;
+				errors[t + 2] += b_error * w;
+			}
+		}
+	}
+
+	// rows are taken by workers in order, row starts a block when previous row is LAG pixels past it
+	// sums of errors do not depend on order, result is the same as sequential one
+	private final void wavefront(final byte pixels[], final int offset, final int stride, final int workers,
+			final Quantizer quantizer) {
+		final int ring = workers + ROWS - 1; // rows in progress and two next ones
+		final int errors[] = new int[ring * rowLength];
+
+		final AtomicIntegerArray progress = new AtomicIntegerArray(height); // pixels done in every row
+		final AtomicInteger next = new AtomicInteger();
+
+		Parallel.forRange(0, workers, true, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				final int base[] = new int[ROWS];
+
+				for (int y; (y = next.getAndIncrement()) < height;) {
+					for (int i = 0; i < ROWS; i++)
+						base[i] = ((y + i) % ring) * rowLength + PAD * 3;
+
+					final int p = offset + y * stride;
+
+					// ring rows taken over from row y - workers are cleared (never waits, publishes clearing)
+					if (y >= workers)
+						await(progress, y - workers, width);
+
+					for (int x = 0; x < width; x += BLOCK) {
+						final int end = Math.min(width, x + BLOCK);
+
+						if (y > 0)
+							await(progress, y - 1, Math.min(width, end + LAG));
+
+						diffuse(pixels, p, errors, base, y, x, end, quantizer);
+
+						if (end == width) // ring row is reused by row y + ring
+							Arrays.fill(errors, base[0] - PAD * 3, base[0] - PAD * 3 + rowLength, 0);
+
+						progress.set(y, end);
+					}
+				}
+			}
+		});
+	}
+
+	// waits until row has given pixels done, without taking time of busy or shared cores for long
+	private static final void await(final AtomicIntegerArray progress, final int row, final int pixels) {
+		for (int i = 0; progress.get(row) < pixels; i++)
+			if (i < SPINS)
+				Thread.onSpinWait();
+			else if (i < SPINS + YIELDS)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(PARK);
+	}
+
+	public final void dither(final byte pixels[], final Quantizer quantizer) {
+		dither(pixels, 0, width * 3, quantizer);
+	}
+
+	// whole row is quantized at once, its errors spread only to next rows with weights of these taps
+	// scaled up to keep all error. Rows are quantized in parallel when no errors are diffused, row
+	// waits for all pixels of previous one otherwise
+	public final void ditherRows(final byte pixels[], final RowQuantizer quantizer) {
+		final int stride = width * 3;
+
+		if (taps == 0) {
+			Parallel.forRange(0, height, parallel, new Parallel.Range() {
+				public void run(final int from, final int to) {
+					final int targets[] = new int[stride];
+					final int colors[] = new int[width];
+					final int mask = size - 1;
+
+					for (int y = from; y < to; y++) {
+						final int p = y * stride;
+						final int row = (y & mask) * size;
+
+						for (int x = 0, x3 = 0; x < width; x++, x3 += 3) {
+							final int t = threshold != null ? threshold[row + (x & mask)] : 0;
+
+							targets[x3] = Gfx.saturate((pixels[p + x3] & 0xff) + t);
+							targets[x3 + 1] = Gfx.saturate((pixels[p + x3 + 1] & 0xff) + t);
+							targets[x3 + 2] = Gfx.saturate((pixels[p + x3 + 2] & 0xff) + t);
+						}
+
+						quantizer.quantize(y, targets, colors);
+
+						for (int x = 0, x3 = 0; x < width; x++, x3 += 3) {
+							final int color = colors[x];
+
+							pixels[p + x3] = (byte) (color >> 16);
+							pixels[p + x3 + 1] = (byte) (color >> 8);
+							pixels[p + x3 + 2] = (byte) color;
+						}
+					}
+				}
+			});
+
+			return;
+		}
+
+		int down = 0;
+		for (int i = 0; i < taps; i++)
+			if (rows[i] > 0)
+				down += weights[i];
+
+		final int scaled[] = new int[taps];
+		for (int i = 0; i < taps; i++)
+			scaled[i] = rows[i] > 0 ? (int) (((long) weights[i] << FRACTION) / down) : 0;
+
+		final int base[] = new int[ROWS];
+		final int targets[] = new int[stride];
+		final int colors[] = new int[width];
+
+		Arrays.fill(errors, 0);
+
+		for (int y = 0; y < height; y++) {
+			for (int i = 0; i < ROWS; i++)
+				base[i] = ((y + i) % ROWS) * rowLength + PAD * 3;
+
+			final int p = y * stride;
+			final int row = base[0];
+
+			for (int x3 = 0; x3 < stride; x3 += 3) {
+				final int e = row + x3;
+
+				targets[x3] = Gfx.saturate((pixels[p + x3] & 0xff) + (errors[e] >> FRACTION));
+				targets[x3 + 1] = Gfx.saturate((pixels[p + x3 + 1] & 0xff) + (errors[e + 1] >> FRACTION));
+				targets[x3 + 2] = Gfx.saturate((pixels[p + x3 + 2] & 0xff) + (errors[e + 2] >> FRACTION));
+			}
+
+			quantizer.quantize(y, targets, colors);
+
+			for (int x = 0, x3 = 0; x < width; x++, x3 += 3) {
+				final int color = colors[x];
+
+				final int r = (color >> 16) & 0xff;
+				final int g = (color >> 8) & 0xff;
+				final int b = color & 0xff;
+
+				pixels[p + x3] = (byte) r;
+				pixels[p + x3 + 1] = (byte) g;
+				pixels[p + x3 + 2] = (byte) b;
+
+				final int r_error = targets[x3] - r;
+				final int g_error = targets[x3 + 1] - g;
+				final int b_error = targets[x3 + 2] - b;
+
+				for (int i = 0; i < taps; i++)
+					if (rows[i] > 0) {
+						final int t = base[rows[i]] + x3 + offsets[i];
+						final int w = scaled[i];
+
+						errors[t] += r_error * w;
+						errors[t + 1] += g_error * w;
+						errors[t + 2] += b_error * w;
+					}
+			}
+
+			// current row becomes the last one
+			Arrays.fill(errors, row - PAD * 3, row - PAD * 3 + rowLength, 0);
+		}
+	}
+
+	private final void ordered(final byte pixels[], final int offset, final int stride, final int left, final int top,
+			final Quantizer quantizer, final int from, final int to) {
+		final int mask = size - 1;
+
+		for (int y = from; y < to; y++) {
+			final int p = offset + y * stride;
+			final int row = ((top + y) & mask) * size;
+
+			for (int x = 0, x3 = 0; x < width; x++, x3 += 3) {
+				final int position = p + x3;
+				final int t = threshold[row + ((left + x) & mask)];
+
+				final int r0 = Gfx.saturate((pixels[position] & 0xff) + t);
+				final int g0 = Gfx.saturate((pixels[position + 1] & 0xff) + t);
+				final int b0 = Gfx.saturate((pixels[position + 2] & 0xff) + t);
+
+				final int color = quantizer.quantize(x, y, r0, g0, b0);
+
+				pixels[position] = (byte) (color >> 16);
+				pixels[position + 1] = (byte) (color >> 8);
+				pixels[position + 2] = (byte) color;
+			}
+		}
+	}
+
+	// ranks 0..n^2-1 of recursive Bayer matrix
+	private static final int[] bayer(final int n) {
+		int matrix[] = new int[] { 0 };
+
+		for (int s = 1; s < n; s <<= 1) {
+			final int next[] = new int[4 * s * s];
+			final int side = s << 1;
+
+			for (int y = 0; y < s; y++)
+				for (int x = 0; x < s; x++) {
+					final int m = matrix[y * s + x] << 2;
+
+					next[y * side + x] = m;
+					next[y * side + x + s] = m + 2;
+					next[(y + s) * side + x] = m + 3;
+					next[(y + s) * side + x + s] = m + 1;
+				}
+
+			matrix = next;
+		}
+
+		return matrix;
+	}
+
+	// ranks to threshold offsets centered around 0
+	private static final int[] offsets(final int ranks[], final int spread) {
+		final int len = ranks.length;
+		final int offsets[] = new int[len];
+
+		for (int i = 0; i < len; i++)
+			offsets[i] = ((2 * ranks[i] + 1) * spread) / (2 * len) - spread / 2;
+
+		return offsets;
+	}
+
+	// average distance to the nearest other color, step between palette colors
+	private static final int spread(final int palette[][]) {
+		if (palette == null || palette.length < 2)
+			return SPREAD;
+
+		final int len = palette.length;
+		float sum = 0;
+
+		for (int i = 0; i < len; i++) {
+			final int c[] = palette[i];
+			float min = Float.MAX_VALUE;
+
+			for (int j = 0; j < len; j++)
+				if (i != j) {
+					final int n[] = palette[j];
+					final float d = Gfx.euclideanDistance(c[0], c[1], c[2], n[0], n[1], n[2]);
+
+					if (d > 0 && d < min)
+						min = d;
+				}
+
+			if (min < Float.MAX_VALUE)
+				sum += Math.sqrt(min);
+		}
+
+		return Math.round(sum / len);
+	}
+
+	protected static synchronized int[] getBlueNoise() {
+		if (blueNoise == null)
+			try {
+				final byte data[] = Utils.loadResource(BLUE_NOISE);
+				final int matrix[] = new int[64 * 64];
+
+				for (int i = 0; i < matrix.length; i++)
+					matrix[i] = (data[i] & 0xff) << 4; // 256 levels scaled to 64 * 64 ranks
+
+				blueNoise = matrix;
+			} catch (final IOException e) {
+				// mass hysteria
+				throw new RuntimeException(e);
+			}
+
+		return blueNoise;
+	}
+
+	public static final int color(final int c[]) {
+		return (c[0] << 16) | (c[1] << 8) | c[2];
+	}
+}
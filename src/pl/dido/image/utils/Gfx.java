@@ -2,16 +2,27 @@ package pl.dido.image.utils;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
 import java.util.Arrays;
 
-import pl.dido.image.utils.Config.DITHERING;
 import pl.dido.image.utils.Config.NEAREST_COLOR;
 
 public class Gfx {
 
+	// band offsets of canonical picture, interleaved r, g, b bytes
+	private static final int RGB[] = { 0, 1, 2 };
+
 	public static final void rgb2YUV(final int r, final int g, final int b, final int yuv[], final int i) {
 		yuv[i] = Math.round(r * .299000f + g * .587000f + b * .114000f);
 		yuv[i + 1] = Math.round(r * -.168736f + g * -.331264f + b * .500000f + 128f);
@@ -129,7 +140,7 @@ public class Gfx {
 		final double sx = maxX / (double) x;
 		final double sy = maxY / (double) y;
 
-		final BufferedImage scaled = new BufferedImage(maxX, maxY, image.getType());
+		final BufferedImage scaled = rgbImage(maxX, maxY);
 		final AffineTransform si = AffineTransform.getScaleInstance(sx, sy);
 
 		final AffineTransformOp transform = new AffineTransformOp(si, AffineTransformOp.TYPE_BILINEAR);
@@ -139,7 +150,7 @@ public class Gfx {
 	}
 
 	public static final BufferedImage scaleWithPreservedAspect(final BufferedImage image, final int maxX, final int maxY) {
-		final BufferedImage img = new BufferedImage(maxX, maxY, image.getType());
+		final BufferedImage img = rgbImage(maxX, maxY);
 		final Graphics2D g = img.createGraphics();
 
 		g.setPaint(new Color(0, 0, 0)); // white background
@@ -150,7 +161,7 @@ public class Gfx {
 		
 		final double ratio = Math.min(maxX / x, maxY / y);
 				
-		final BufferedImage scaled = new BufferedImage(maxX, maxY, image.getType());
+		final BufferedImage scaled = rgbImage(maxX, maxY);
 		final AffineTransform si = AffineTransform.getScaleInstance(ratio, ratio);
 		
 		final AffineTransformOp scale = new AffineTransformOp(si, AffineTransformOp.TYPE_BILINEAR);
@@ -160,43 +171,104 @@ public class Gfx {
 		final int py = (int) ((maxY - y * ratio) / 2);
 		
 		g.drawImage(scaled, px, py, null);
+		g.dispose();
+
 		return img;
 	}
 
-	private static final int lumaBlend(final int l1, final int l2) {
-		return (l1 * 9 + l2) / 10;
+	// picture with interleaved r, g, b bytes, the only layout renderers work on
+	public static final BufferedImage rgbImage(final int width, final int height) {
+		final ComponentColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false,
+				false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+		return new BufferedImage(model,
+				Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, width * 3, 3, RGB, null), false,
+				null);
 	}
 
-	private static final int cdfScale(final int cdf[], final int luma, final int max) {
-		return (cdf[luma] * 255) / cdf[max];
+	// color as r << 16 | g << 8 | b, like palettes of renderers
+	public static final void setPixel(final byte pixels[], final int i, final int color) {
+		pixels[i] = (byte) (color >> 16);
+		pixels[i + 1] = (byte) (color >> 8);
+		pixels[i + 2] = (byte) color;
+	}
+
+	public static final boolean isRGB(final BufferedImage image) {
+		final SampleModel model = image.getSampleModel();
+
+		if (!(model instanceof PixelInterleavedSampleModel) || !(image.getColorModel() instanceof ComponentColorModel)
+				|| image.getColorModel().hasAlpha() || !image.getColorModel().getColorSpace().isCS_sRGB())
+			return false;
+
+		final PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) model;
+
+		return interleaved.getDataType() == DataBuffer.TYPE_BYTE && interleaved.getPixelStride() == 3
+				&& interleaved.getScanlineStride() == image.getWidth() * 3
+				&& Arrays.equals(interleaved.getBandOffsets(), RGB) && image.getRaster().getParent() == null;
 	}
 
-	private static final void rgb2YUV(final int type, final int r, final int g, final int b, final int yuv[],
-			final int i) {
-		switch (type) {
+	// converts any picture into interleaved r, g, b bytes, canonical picture is returned as it is
+	public static final BufferedImage toRGB(final BufferedImage image) {
+		if (isRGB(image))
+			return image;
+
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+
+		final BufferedImage rgb = rgbImage(width, height);
+		final byte pixels[] = ((DataBufferByte) rgb.getRaster().getDataBuffer()).getData();
+
+		final int len = width * height;
+		final DataBuffer buffer = image.getRaster().getDataBuffer();
+
+		switch (image.getType()) {
 		case BufferedImage.TYPE_3BYTE_BGR:
-			Gfx.rgb2YUV(b, g, r, yuv, i);
+			final byte bgr[] = ((DataBufferByte) buffer).getData();
+
+			if (bgr.length == len * 3 && image.getRaster().getParent() == null) {
+				for (int i = 0; i < len * 3; i += 3) {
+					pixels[i] = bgr[i + 2];
+					pixels[i + 1] = bgr[i + 1];
+					pixels[i + 2] = bgr[i];
+				}
+
+				return rgb;
+			}
+
 			break;
 		case BufferedImage.TYPE_INT_RGB:
-			Gfx.rgb2YUV(r, g, b, yuv, i);
-			break;
-		default:
-			throw new RuntimeException("Unsupported pixel format !!!");
-		}
-	}
+			final int ints[] = ((DataBufferInt) buffer).getData();
 
-	private static final void yuv2RGB(final int type, final int y, final int u, final int v, final byte[] pixels,
-			final int i) {
-		Gfx.yuv2RGB(y, u, v, pixels, i);
+			if (ints.length == len && image.getRaster().getParent() == null) {
+				for (int i = 0, k = 0; i < len; i++, k += 3) {
+					final int pixel = ints[i];
 
-		switch (type) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			final byte t = pixels[i];
-			pixels[i] = pixels[i + 2];
-			pixels[i + 2] = t;
+					pixels[k] = (byte) (pixel >> 16);
+					pixels[k + 1] = (byte) (pixel >> 8);
+					pixels[k + 2] = (byte) pixel;
+				}
+
+				return rgb;
+			}
 
 			break;
 		}
+
+		// any other layout, let Java2D convert it
+		final Graphics2D g = rgb.createGraphics();
+
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		return rgb;
+	}
+
+	private static final int lumaBlend(final int l1, final int l2) {
+		return (l1 * 9 + l2) / 10;
+	}
+
+	private static final int cdfScale(final int cdf[], final int luma, final int max) {
+		return (cdf[luma] * 255) / cdf[max];
 	}
 
 	private static final void calcCdf(final int cdf[], final int histogram[]) {
@@ -207,7 +279,7 @@ public class Gfx {
 			cdf[i] = cdf[i - 1] + histogram[i];
 	}
 
-	public static final void HE(final byte pixels[], final int pixelFormat) {
+	public static final void HE(final byte pixels[]) {
 		final int histogram[] = new int[256];
 		final int cdf[] = new int[256];
 
@@ -220,7 +292,7 @@ public class Gfx {
 			g = pixels[i + 1] & 0xff;
 			b = pixels[i + 2] & 0xff;
 
-			rgb2YUV(pixelFormat, r, g, b, yuv, i);
+			YUV.rgb2YUV(r, g, b, yuv, i);
 			final int luma = yuv[i]; 
 			histogram[luma]++;
 
@@ -231,7 +303,7 @@ public class Gfx {
 		calcCdf(cdf, histogram);
 
 		for (int i = 0; i < len; i += 3)
-			yuv2RGB(pixelFormat, cdfScale(cdf, yuv[i], max), yuv[i + 1], yuv[i + 2], pixels, i);
+			YUV.yuv2RGB(cdfScale(cdf, yuv[i], max), yuv[i + 1], yuv[i + 2], pixels, i);
 	}
 	
 	private static final void clipHistogram(final int histogram[], final int brightness) {
@@ -266,8 +338,124 @@ public class Gfx {
 	}
 
 	// SWAHE
-	public final static void SWAHE(final byte pixels[], final int pixelFormat, final int window, int brightness,
+	public final static void SWAHE(final byte pixels[], final int window, final int brightness, final int width,
+			final int height) {
+		final int midX = (3 * window) / 2;
+		final int midY = window / 2;
+
+		// odd windows never hit center pixel
+		if (midX % 3 == 0 && midX / 3 <= width && midY <= height)
+			slidingSWAHE(pixels, window, brightness, width, height);
+		else
+			windowSWAHE(pixels, window, brightness, width, height);
+	}
+
+	// sliding histogram, adds and removes one column of the window per pixel
+	private final static void slidingSWAHE(final byte pixels[], final int window, final int brightness,
 			final int width, final int height) {
+		final int cdf[] = new int[256];
+		final int yuv[] = new int[3];
+
+		// even window, same half size in pixels for both axes
+		final int midX = window / 2;
+		final int midY = midX;
+
+		// luma plane, follows pixels already equalized
+		final int len = width * height;
+		final int lumas[] = new int[len];
+
+		for (int i = 0, sp = 0; i < len; i++, sp += 3) {
+			YUV.rgb2YUV(pixels[sp] & 0xff, pixels[sp + 1] & 0xff, pixels[sp + 2] & 0xff, yuv, 0);
+			lumas[i] = yuv[0];
+		}
+
+		// window rows and columns, wrapped like in the window version
+		final int rows[] = new int[window];
+		final int columns[] = new int[width + 2 * midX];
+
+		for (int x = -midX; x < width + midX; x++)
+			columns[x + midX] = x < 0 ? x + midX : x > width - 1 ? x - midX : x;
+
+		final int histogram[] = new int[256];
+		final int clipped[] = new int[256];
+
+		final int clip = brightness * 3;
+		int max = 0;
+
+		for (int y = 0; y < height; y++) {
+			for (int yw = -midY, i = 0; yw < midY; yw++, i++) {
+				final int y0 = y + yw;
+				rows[i] = (y0 < 0 ? y0 + midY : y0 > height - 1 ? y0 - midY : y0) * width;
+			}
+
+			// center pixel count in window
+			int countY = 0;
+			for (int i = 0; i < window; i++)
+				if (rows[i] == y * width)
+					countY++;
+
+			// full window at the row start
+			Arrays.fill(histogram, 0);
+			for (int i = 0; i < window; i++)
+				for (int xw = 0; xw < 2 * midX; xw++)
+					histogram[lumas[rows[i] + columns[xw]]]++;
+
+			for (int x = 0; x < width; x++) {
+				if (x > 0) {
+					// slide window
+					final int out = columns[x - 1];
+					final int in = columns[x - 1 + 2 * midX];
+
+					for (int i = 0; i < window; i++) {
+						histogram[lumas[rows[i] + out]]--;
+						histogram[lumas[rows[i] + in]]++;
+					}
+				}
+
+				// running maximum of all seen lumas
+				for (int i = 255; i > max; i--)
+					if (histogram[i] != 0) {
+						max = i;
+						break;
+					}
+
+				System.arraycopy(histogram, 0, clipped, 0, 256);
+				clipHistogram(clipped, clip);
+
+				// cdf - cumulative distributed function
+				calcCdf(cdf, clipped);
+
+				final int wp = (y * width + x) * 3;
+				YUV.rgb2YUV(pixels[wp] & 0xff, pixels[wp + 1] & 0xff, pixels[wp + 2] & 0xff, yuv, 0);
+
+				// window center pixel - luma
+				YUV.yuv2RGB(cdfScale(cdf, yuv[0], max), yuv[1], yuv[2], pixels, wp);
+
+				// equalized pixel stays in the window
+				YUV.rgb2YUV(pixels[wp] & 0xff, pixels[wp + 1] & 0xff, pixels[wp + 2] & 0xff, yuv, 0);
+
+				final int p = y * width + x;
+				final int luma = yuv[0];
+
+				if (luma != lumas[p]) {
+					int countX = 0;
+					for (int xw = x; xw < x + 2 * midX; xw++)
+						if (columns[xw] == x)
+							countX++;
+
+					final int count = countX * countY;
+					histogram[lumas[p]] -= count;
+					histogram[luma] += count;
+
+					lumas[p] = luma;
+				}
+			}
+		}
+	}
+
+	// rebuilds histogram of whole window for every pixel
+	private final static void windowSWAHE(final byte pixels[], final int window, int brightness, final int width,
+			final int height) {
 		// cdf & yuv
 		final int cdf[] = new int[256];
 		final int yuv[] = new int[6]; // work + center pixels
@@ -323,12 +511,12 @@ public class Gfx {
 						if (xw == 0 && yw == 0) {
 							wp = sp;
 
-							rgb2YUV(pixelFormat, r, g, b, yuv, 3);
+							YUV.rgb2YUV(r, g, b, yuv, 3);
 							luma = yuv[3];
 
 							histogram[luma]++; // add center pixel to histogram
 						} else {
-							rgb2YUV(pixelFormat, r, g, b, yuv, 0);
+							YUV.rgb2YUV(r, g, b, yuv, 0);
 							luma = yuv[0];
 
 							histogram[luma]++; // add current pixel to histogram
@@ -346,331 +534,262 @@ public class Gfx {
 				calcCdf(cdf, histogram);
 
 				// window center pixel - luma
-				yuv2RGB(pixelFormat, cdfScale(cdf, yuv[3], max), yuv[3 + 1], yuv[3 + 2], pixels, wp);
+				YUV.yuv2RGB(cdfScale(cdf, yuv[3], max), yuv[3 + 1], yuv[3 + 2], pixels, wp);
 			}
 	}
 
 	// CLAHE
-	public static final void CLAHE(final byte pixels[], final int pixelFormat, final int window,
-			int brightness, final int width, final int height) {
+	public static final void CLAHE(final byte pixels[], final int window, final int brightness, final int width,
+			final int height) {
+		CLAHE(pixels, window, brightness, width, height, true);
+	}
+
+	// tiles and interpolation bands are independent, each stage runs in parallel
+	public static final void CLAHE(final byte pixels[], final int window, final int brightness, final int width,
+			final int height, final boolean parallel) {
 
 		final int yuv[] = new int[pixels.length];
 		final int lumas[] = new int[pixels.length];
 
-		// cdf & yuv
-		final int cdf[] = new int[256];
-
 		final int maxX = width;
 		final int maxY = height;
 
 		final int midX = window / 2;
 		final int midY = window / 2;
 
-		// histogram
-		final int histogram[] = new int[256];
+		final int clip = brightness * 3;
 
-		int r, g, b;
-		final int type = pixelFormat;
-		brightness *= 3;
+		// tiles and inner blocks count
+		final int tileRows = (maxY + window - 1) / window;
+		final int blockRows = Math.max(0, (maxY - 2 * midY + window - 1) / window);
+		final int blockColumns = Math.max(0, (maxX - 2 * midX + window - 1) / window);
 
 		// process all inner pixel image to get central pixel luma
-		for (int y = 0; y < maxY; y += window)
-			for (int x = 0; x < maxX; x += window) {
-				// compute histogram for window
-				Arrays.fill(histogram, 0);
+		Parallel.forRange(0, tileRows, parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				// cdf & histogram
+				final int cdf[] = new int[256];
+				final int histogram[] = new int[256];
 
-				int max = 0;
-				final int wp = ((x + midX) + (y + midY) * maxX) * 3;
+				int r, g, b;
 
-				// calculate window histogram
-				for (int yw = 0; yw < window; yw++) {
-					final int y0 = y + yw;
+				for (int y = from * window; y < to * window && y < maxY; y += window)
+					for (int x = 0; x < maxX; x += window) {
+						// compute histogram for window
+						Arrays.fill(histogram, 0);
 
-					final int sp0 = y0 * maxX;
-					for (int xw = 0; xw < window; xw++) {
-						final int x0 = x + xw;
+						int max = 0;
+						final int wp = ((x + midX) + (y + midY) * maxX) * 3;
 
-						// screen position
-						final int sp = 3 * (x0 + sp0);
+						// calculate window histogram
+						for (int yw = 0; yw < window; yw++) {
+							final int y0 = y + yw;
 
-						r = pixels[sp] & 0xff;
-						g = pixels[sp + 1] & 0xff;
-						b = pixels[sp + 2] & 0xff;
+							final int sp0 = y0 * maxX;
+							for (int xw = 0; xw < window; xw++) {
+								final int x0 = x + xw;
 
-						rgb2YUV(type, r, g, b, yuv, sp);
+								// screen position
+								final int sp = 3 * (x0 + sp0);
 
-						final int luma = yuv[sp];
-						histogram[luma]++;
+								r = pixels[sp] & 0xff;
+								g = pixels[sp + 1] & 0xff;
+								b = pixels[sp + 2] & 0xff;
 
-						if (luma > max)
-							max = luma;
+								YUV.rgb2YUV(r, g, b, yuv, sp);
+
+								final int luma = yuv[sp];
+								histogram[luma]++;
+
+								if (luma > max)
+									max = luma;
+							}
+						}
+
+						clipHistogram(histogram, clip);
+
+						// cdf - cumulative distributed function
+						calcCdf(cdf, histogram);
+
+						// window center pixel - luma
+						lumas[wp] = cdfScale(cdf, yuv[wp], max);
 					}
-				}
-				
-				clipHistogram(histogram, brightness);
-				
-				// cdf - cumulative distributed function
-				calcCdf(cdf, histogram);
-				
-				// window center pixel - luma
-				lumas[wp] = cdfScale(cdf, yuv[wp], max);
 			}
+		});
 
 		// bilinear interpolation
-		for (int y = midY; y < maxY - midY; y += window) {
-			final int y1 = y;
-			final int y2 = y + window;
-			
-			for (int x = midX; x < maxX - midX; x += window) {
-				final int x1 = x;
-				final int x2 = x + window;
-				
-				final int y1maxX = y1 * maxX;
-				final int y2maxX = y2 * maxX;
+		Parallel.forRange(0, blockRows, parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				for (int y = midY + from * window; y < midY + to * window && y < maxY - midY; y += window) {
+					final int y1 = y;
+					final int y2 = y + window;
 
-				final int wp1 = (x1 + y1maxX) * 3;
-				final int wp2 = (x2 + y1maxX) * 3;
-				final int wp3 = (x1 + y2maxX) * 3;
-				final int wp4 = (x2 + y2maxX) * 3;
+					for (int x = midX; x < maxX - midX; x += window) {
+						final int x1 = x;
+						final int x2 = x + window;
 
-				final int l1 = lumas[wp1];
-				final int l2 = lumas[wp2];
-				final int l3 = lumas[wp3];
-				final int l4 = lumas[wp4];
+						final int y1maxX = y1 * maxX;
+						final int y2maxX = y2 * maxX;
 
-				final float dy21 = y2 - y1;
-				final float dx21 = x2 - x1;
+						final int wp1 = (x1 + y1maxX) * 3;
+						final int wp2 = (x2 + y1maxX) * 3;
+						final int wp3 = (x1 + y2maxX) * 3;
+						final int wp4 = (x2 + y2maxX) * 3;
 
-				for (int yw = y; yw < y + window; yw++) {
-					final float dy2w = y2 - yw;
-					final float dwy1 = yw - y1;
+						final int l1 = lumas[wp1];
+						final int l2 = lumas[wp2];
+						final int l3 = lumas[wp3];
+						final int l4 = lumas[wp4];
 
-					for (int xw = x; xw < x + window; xw++) {
-						// bilinear approximation
-						final float dx2w = x2 - xw;
-						final float dwx1 = xw - x1;
+						final float dy21 = y2 - y1;
+						final float dx21 = x2 - x1;
 
-						final float p = dx2w / dx21;
-						final float q = dwx1 / dx21;
+						for (int yw = y; yw < y + window; yw++) {
+							final float dy2w = y2 - yw;
+							final float dwy1 = yw - y1;
+
+							for (int xw = x; xw < x + window; xw++) {
+								// bilinear approximation
+								final float dx2w = x2 - xw;
+								final float dwx1 = xw - x1;
 
-						final float i1 = p * l1 + q * l2;
-						final float i2 = p * l3 + q * l4;
+								final float p = dx2w / dx21;
+								final float q = dwx1 / dx21;
 
-						final int a = Math.round(dy2w / dy21 * i1 + dwy1 / dy21 * i2);
-						final int sp = 3 * (xw + yw * maxX);
+								final float i1 = p * l1 + q * l2;
+								final float i2 = p * l3 + q * l4;
 
-						yuv2RGB(type, lumaBlend(yuv[sp], a), yuv[sp + 1], yuv[sp + 2], pixels, sp);
+								final int a = Math.round(dy2w / dy21 * i1 + dwy1 / dy21 * i2);
+								final int sp = 3 * (xw + yw * maxX);
+
+								YUV.yuv2RGB(lumaBlend(yuv[sp], a), yuv[sp + 1], yuv[sp + 2], pixels, sp);
+							}
+						}
 					}
 				}
 			}
-		}
+		});
 
 		// up and down
-		for (int x = midX; x < maxX - midX; x += window) {
-			final int y1 = midY;
-			final int y2 = maxY - midY;
+		Parallel.forRange(0, blockColumns, parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				for (int x = midX + from * window; x < midX + to * window && x < maxX - midX; x += window) {
+					final int y1 = midY;
+					final int y2 = maxY - midY;
 
-			for (int xw = x; xw < x + window; xw++) {
-				final int x1 = x;
-				final int x2 = x + window;
+					for (int xw = x; xw < x + window; xw++) {
+						final int x1 = x;
+						final int x2 = x + window;
 
-				final int y1maxX = y1 * maxX;
-				final int y2maxX = y2 * maxX;
-				
-				final int wp1 = (x1 + y1maxX) * 3;
-				final int wp2 = (x2 + y1maxX) * 3;
+						final int y1maxX = y1 * maxX;
+						final int y2maxX = y2 * maxX;
 
-				final int wp3 = (x1 + y2maxX) * 3;
-				final int wp4 = (x2 + y2maxX) * 3;
+						final int wp1 = (x1 + y1maxX) * 3;
+						final int wp2 = (x2 + y1maxX) * 3;
 
-				final int l1 = lumas[wp1];
-				final int l2 = lumas[wp2];
+						final int wp3 = (x1 + y2maxX) * 3;
+						final int wp4 = (x2 + y2maxX) * 3;
 
-				final int l3 = lumas[wp3];
-				final int l4 = lumas[wp4];
+						final int l1 = lumas[wp1];
+						final int l2 = lumas[wp2];
 
-				final float dx21 = x2 - x1;
-				final float dx2w = x2 - xw;
-				final float dwx1 = xw - x1;
+						final int l3 = lumas[wp3];
+						final int l4 = lumas[wp4];
+
+						final float dx21 = x2 - x1;
+						final float dx2w = x2 - xw;
+						final float dwx1 = xw - x1;
 
-				final float p = dx2w / dx21;
-				final float q = dwx1 / dx21;
+						final float p = dx2w / dx21;
+						final float q = dwx1 / dx21;
 
-				final int a1 = Math.round(p * l1 + q * l2);
-				final int a2 = Math.round(p * l3 + q * l4);
+						final int a1 = Math.round(p * l1 + q * l2);
+						final int a2 = Math.round(p * l3 + q * l4);
 
-				for (int yw1 = 0; yw1 < midY; yw1++) {
-					final int yw2 = (maxY - 1) - yw1;
+						for (int yw1 = 0; yw1 < midY; yw1++) {
+							final int yw2 = (maxY - 1) - yw1;
 
-					final int sp1 = 3 * (xw + yw1 * maxX);
-					final int sp2 = 3 * (xw + yw2 * maxX);
+							final int sp1 = 3 * (xw + yw1 * maxX);
+							final int sp2 = 3 * (xw + yw2 * maxX);
 
-					yuv2RGB(type, lumaBlend(yuv[sp1], a1), yuv[sp1 + 1], yuv[sp1 + 2], pixels, sp1);
-					yuv2RGB(type, lumaBlend(yuv[sp2], a2), yuv[sp2 + 1], yuv[sp2 + 2], pixels, sp2);
+							YUV.yuv2RGB(lumaBlend(yuv[sp1], a1), yuv[sp1 + 1], yuv[sp1 + 2], pixels, sp1);
+							YUV.yuv2RGB(lumaBlend(yuv[sp2], a2), yuv[sp2 + 1], yuv[sp2 + 2], pixels, sp2);
+						}
+					}
 				}
 			}
-		}
+		});
 
 		// left right
-		for (int y = midY; y < maxY - midY; y += window) {
-			final int x1 = midX;
-			final int x2 = maxX - midX;
+		Parallel.forRange(0, blockRows, parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				final int x1 = midX;
+				final int x2 = maxX - midX;
 
-			final float dx21 = x2 - x1;
-			for (int yw = y; yw < y + window; yw++) {
-				final int y1 = y;
-				final int y2 = y + window;
+				final float dx21 = x2 - x1;
 
-				final int y1maxX = y1 * maxX;
-				final int y2maxX = y2 * maxX;
+				for (int y = midY + from * window; y < midY + to * window && y < maxY - midY; y += window)
+					for (int yw = y; yw < y + window; yw++) {
+						final int y1 = y;
+						final int y2 = y + window;
 
-				final int wp1 = (x1 + y1maxX) * 3;
-				final int wp2 = (x2 + y1maxX) * 3;
+						final int y1maxX = y1 * maxX;
+						final int y2maxX = y2 * maxX;
 
-				final int wp3 = (x1 + y2maxX) * 3;
-				final int wp4 = (x2 + y2maxX) * 3;
+						final int wp1 = (x1 + y1maxX) * 3;
+						final int wp2 = (x2 + y1maxX) * 3;
 
-				final int l1 = lumas[wp1];
-				final int l2 = lumas[wp2];
+						final int wp3 = (x1 + y2maxX) * 3;
+						final int wp4 = (x2 + y2maxX) * 3;
 
-				final int l3 = lumas[wp3];
-				final int l4 = lumas[wp4];
+						final int l1 = lumas[wp1];
+						final int l2 = lumas[wp2];
 
+						final int l3 = lumas[wp3];
+						final int l4 = lumas[wp4];
 
-				for (int xw1 = 0; xw1 < midX; xw1++) {
-					float dx2w = x2 - xw1;
-					float dwx1 = xw1 - x1;
+						for (int xw1 = 0; xw1 < midX; xw1++) {
+							float dx2w = x2 - xw1;
+							float dwx1 = xw1 - x1;
 
-					float p = dx2w / dx21;
-					float q = dwx1 / dx21;
+							float p = dx2w / dx21;
+							float q = dwx1 / dx21;
 
-					final int a1 = Math.round(p * l1 + q * l2);
-					final int xw2 = (maxX - 1) - xw1;
-					
-					dx2w = x2 - xw2;
-					dwx1 = xw2 - x1;
+							final int a1 = Math.round(p * l1 + q * l2);
+							final int xw2 = (maxX - 1) - xw1;
 
-					p = dx2w / dx21;
-					q = dwx1 / dx21;
+							dx2w = x2 - xw2;
+							dwx1 = xw2 - x1;
 
-					final int a2 = Math.round(p * l3 + q * l4);
+							p = dx2w / dx21;
+							q = dwx1 / dx21;
 
-					final int sp1 = 3 * (xw1 + yw * maxX);
-					final int sp2 = 3 * (xw2 + yw * maxX);
+							final int a2 = Math.round(p * l3 + q * l4);
 
-					yuv2RGB(type, lumaBlend(yuv[sp1], a1), yuv[sp1 + 1], yuv[sp1 + 2], pixels, sp1);
-					yuv2RGB(type, lumaBlend(yuv[sp2], a2), yuv[sp2 + 1], yuv[sp2 + 2], pixels, sp2);
-				}
-			}
-		}
-	}
-	
-	public static void dithering(final byte pixels[], final int pixelType, final int palette[][], final Config cfg) {
-		final int work[] = Gfx.copy2Int(pixels);
-		
-		final int width = cfg.getWidth();
-		final int height = cfg.getHeight();
-		
-		final DITHERING dither = cfg.dither_alg;
-		final NEAREST_COLOR colorAlg = cfg.color_alg;
-		
-		final int width3 = width * 3;
-
-		int r0, g0, b0;
-		int r_error = 0, g_error = 0, b_error = 0;
+							final int sp1 = 3 * (xw1 + yw * maxX);
+							final int sp2 = 3 * (xw2 + yw * maxX);
 
-		for (int y = 0; y < height; y++) {
-			final int k = y * width3;
-			final int k1 = ((y + 1) * width3);
-			final int k2 = ((y + 2) * width3);
-
-			for (int x = 0; x < width3; x += 3) {
-				final int pyx = k + x;
-				final int py1x = k1 + x;
-				final int py2x = k2 + x;
-
-				r0 = Gfx.saturate(work[pyx]);
-				g0 = Gfx.saturate(work[pyx + 1]);
-				b0 = Gfx.saturate(work[pyx + 2]);
-
-				final int color = getColorIndex(colorAlg, pixelType, palette, r0, g0, b0);
-				final int pixel[] = palette[color];
-
-				final int r = pixel[0];
-				final int g = pixel[1];
-				final int b = pixel[2];
-
-				pixels[pyx] = (byte) r;
-				pixels[pyx + 1] = (byte) g;
-				pixels[pyx + 2] = (byte) b;
-
-				r_error = r0 - r;
-				g_error = g0 - g;
-				b_error = b0 - b;
-
-				switch (dither) {
-				case STD_FS:
-					if (x < (width - 1) * 3) {
-						work[pyx + 3]     += (r_error * 7) / 16;
-						work[pyx + 3 + 1] += (g_error * 7) / 16;
-						work[pyx + 3 + 2] += (b_error * 7) / 16;
-					}
-					if (y < height - 1) {
-						work[py1x - 3]     += (r_error * 3) / 16;
-						work[py1x - 3 + 1] += (g_error * 3) / 16;
-						work[py1x - 3 + 2] += (b_error * 3) / 16;
-
-						work[py1x]     += (r_error * 5) / 16;
-						work[py1x + 1] += (g_error * 5) / 16;
-						work[py1x + 2] += (b_error * 5) / 16;
-
-						if (x < (width - 1) * 3) {
-							work[py1x + 3]     += r_error / 16;
-							work[py1x + 3 + 1] += g_error / 16;
-							work[py1x + 3 + 2] += b_error / 16;
-						}
-					}
-					break;
-				case ATKINSON:
-					if (x < (width - 1) * 3) {
-						work[pyx + 3]     += r_error >> 3;
-						work[pyx + 3 + 1] += g_error >> 3;
-						work[pyx + 3 + 2] += b_error >> 3;
-
-						if (x < (width - 2) * 3) {
-							work[pyx + 6]     += r_error >> 3;
-							work[pyx + 6 + 1] += g_error >> 3;
-							work[pyx + 6 + 2] += b_error >> 3;
+							YUV.yuv2RGB(lumaBlend(yuv[sp1], a1), yuv[sp1 + 1], yuv[sp1 + 2], pixels, sp1);
+							YUV.yuv2RGB(lumaBlend(yuv[sp2], a2), yuv[sp2 + 1], yuv[sp2 + 2], pixels, sp2);
 						}
 					}
-					if (y < height - 1) {
-						work[py1x - 3]     += r_error >> 3;
-						work[py1x - 3 + 1] += g_error >> 3;
-						work[py1x - 3 + 2] += b_error >> 3;
-
-						work[py1x]     += r_error >> 3;
-						work[py1x + 1] += g_error >> 3;
-						work[py1x + 2] += b_error >> 3;
-
-						if (x < (width - 1) * 3) {
-							work[py1x + 3]     += r_error >> 3;
-							work[py1x + 3 + 1] += g_error >> 3;
-							work[py1x + 3 + 2] += b_error >> 3;
-						}
+			}
+		});
+	}
+	
+	public static void dithering(final byte pixels[], final int palette[][], final Config cfg) {
+		dithering(pixels, palette, new ColorMatcher(palette, cfg.color_alg, cfg), cfg);
+	}
 
-						if (y < height - 2) {
-							work[py2x]     += r_error >> 3;
-							work[py2x + 1] += g_error >> 3;
-							work[py2x + 2] += b_error >> 3;
-						}
-					}
-					break;
-				}
+	public static void dithering(final byte pixels[], final int palette[][], final ColorMatcher matcher, final Config cfg) {
+		new ErrorDiffusion(cfg.dither_alg, palette, cfg.getWidth(), cfg.getHeight(), cfg.parallel).dither(pixels, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				return ErrorDiffusion.color(palette[matcher.getIndex(r, g, b)]);
 			}
-		}
+		});
 	}
 
-	protected final static float getDistance(final NEAREST_COLOR color, final int r0, final int g0, final int b0, final int r1, final int g1,
+	public final static float getDistance(final NEAREST_COLOR color, final int r0, final int g0, final int b0, final int r1, final int g1,
 			final int b1) {
 		switch (color) {
 		case EUCLIDEAN:
@@ -682,14 +801,14 @@ public class Gfx {
 		}
 	}
 
-	public static int getColorIndex(final NEAREST_COLOR color, final int pixelType, final int palette[][], final int r0, final int g0, final int b0) {
+	public static int getColorIndex(final NEAREST_COLOR color, final int palette[][], final int r0, final int g0, final int b0) {
 		switch (color) {
 		case EUCLIDEAN:
 			return getEuclideanColorIndex(palette, r0, g0, b0);
 		case PERCEPTED:
-			return getPerceptedColorIndex(pixelType, palette, r0, g0, b0);
+			return getPerceptedColorIndex(palette, r0, g0, b0);
 		case LUMA_WEIGHTED:
-			return getLumaColorIndex(pixelType, palette, r0, g0, b0);
+			return getLumaColorIndex(palette, r0, g0, b0);
 		default:
 			return getEuclideanColorIndex(palette, r0, g0, b0);
 		}
@@ -717,13 +836,13 @@ public class Gfx {
 		return index;
 	}
 
-	protected static int getPerceptedColorIndex(final int pixelType, final int palette[][], final int r, final int g, final int b) {
+	protected static int getPerceptedColorIndex(final int palette[][], final int r, final int g, final int b) {
 		int index = 0;
 		float min = Float.MAX_VALUE;
 
 		for (int i = palette.length; i-- > 0;) { // euclidean distance
 			final int color[] = palette[i];
-			final float distance = perceptedDistanceCM(pixelType, r, g, b, color[0], color[1], color[2]);
+			final float distance = perceptedDistance(r, g, b, color[0], color[1], color[2]);
 
 			if (distance < min) {
 				min = distance;
@@ -734,16 +853,16 @@ public class Gfx {
 		return index;
 	}
 
-	protected int[] matchingLumaColor(final int pixelType, final int palette[][], final int r, final int g, final int b) {
-		return palette[getLumaColorIndex(pixelType, palette, r, g, b)];
+	protected int[] matchingLumaColor(final int palette[][], final int r, final int g, final int b) {
+		return palette[getLumaColorIndex(palette, r, g, b)];
 	}
 
-	protected static int getLumaColorIndex(final int pixelType, final int palette[][], final int r, final int g, final int b) {
+	protected static int getLumaColorIndex(final int palette[][], final int r, final int g, final int b) {
 		int index = 0, old_index = 0;
 		float y1 = 0, oy1 = 0;
 
 		float min = Float.MAX_VALUE;
-		final float y = getLumaByCM(pixelType, r, g, b);
+		final float y = getLuma(r, g, b);
 		final int len = palette.length;
 
 		for (int i = len; i-- > 0;) { // euclidean distance
@@ -761,45 +880,59 @@ public class Gfx {
 				index = i;
 
 				oy1 = y1;
-				y1 = getLumaByCM(pixelType, pr, pg, pb);
+				y1 = getLuma(pr, pg, pb);
 			}
 		}
 
 		return Math.abs(y1 - y) < Math.abs(oy1 - y) ? index : old_index;
 	}
 
-	protected static float perceptedDistanceCM(final int pixelType, final int r, final int g, final int b, final int pr, final int pg,
-			final int pb) {
-		switch (pixelType) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			return Gfx.perceptedDistance(b, g, r, pb, pg, pr);
-		case BufferedImage.TYPE_INT_RGB:
-			return Gfx.perceptedDistance(r, g, b, pr, pg, pb);
-		default:
-			throw new RuntimeException("Unsupported pixel format !!!");
-		}
-	}
+	// distances of tile pixels (r, g, b) to candidate colors, table[color * count + pixel],
+	// all metrics give whole numbers, so sums of pairs are exact in int
+	public static final void distanceTable(final NEAREST_COLOR color, final int tile[], final int count,
+			final int palette[][], final int candidates[], final int table[]) {
+		final boolean percepted = color == NEAREST_COLOR.PERCEPTED; // others are euclidean here
 
-	public static float getLumaByCM(final int pixelType, final int pr, final int pg, final int pb) {
-		switch (pixelType) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			return Gfx.getLuma(pb, pg, pr);
-		case BufferedImage.TYPE_INT_RGB:
-			return Gfx.getLuma(pr, pg, pb);
-		default:
-			throw new RuntimeException("Unsupported pixel format !!!");
+		for (final int c : candidates) {
+			final int p[] = palette[c];
+			final int pr = p[0], pg = p[1], pb = p[2];
+			final int base = c * count;
+
+			for (int i = 0, k = 0; i < count; i++, k += 3)
+				table[base + i] = (int) (percepted ? perceptedDistance(tile[k], tile[k + 1], tile[k + 2], pr, pg, pb)
+						: euclideanDistance(tile[k], tile[k + 1], tile[k + 2], pr, pg, pb));
 		}
 	}
 
-	public final static float getDistanceByCM(final NEAREST_COLOR color, final int pixelType, final int r1, final int g1, final int b1, final int r2, final int g2,
-			final int b2) {
-		switch (pixelType) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			return getDistance(color, b1, g1, r1, b2, g2, r2);
-		case BufferedImage.TYPE_INT_RGB:
-			return getDistance(color, r1, g1, b1, r2, g2, b2);
-		default:
-			throw new RuntimeException("Unsupported pixel format !!!");
+	// pair of candidate colors with least error, first << 8 | second
+	public static final int bestPair(final int table[], final int count, final int candidates[]) {
+		final int len = candidates.length;
+
+		int best = (candidates[0] << 8) | candidates[0];
+		int min = Integer.MAX_VALUE;
+
+		for (int i = 0; i < len - 1; i++) {
+			final int ka = candidates[i] * count;
+
+			for (int j = i + 1; j < len; j++) {
+				final int kb = candidates[j] * count;
+				int error = 0;
+
+				// stop as soon as pair is worse, checked every 8 pixels
+				for (int p = 0; p < count && error < min; p += 8) {
+					final int end = Math.min(p + 8, count);
+
+					for (int q = p; q < end; q++)
+						error += Math.min(table[ka + q], table[kb + q]);
+				}
+
+				if (error < min) {
+					min = error;
+					best = (candidates[i] << 8) | candidates[j];
+				}
+			}
 		}
+
+		return best;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package pl.dido.image.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * ILBM picture like ILBMWriter writes it (BMHD, CMAP, CAMG and BODY, optionally ByteRun1
+ * compressed) decoded to RGB picture. HAM6 and HAM8 rows start from background color, HAM8 level is
+ * expanded to 8 bits by its top bits like AGA does.
+ */
+public class ILBMReader {
+
+	public static BufferedImage read(final String fileName) throws IOException {
+		final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName))); // big endian
+
+		if (data.remaining() < 12 || data.getInt() != 0x464f524d) // FORM
+			throw new IOException("Not an IFF file: " + fileName);
+
+		data.getInt(); // size
+		if (data.getInt() != 0x494c424d) // ILBM
+			throw new IOException("Not an ILBM picture: " + fileName);
+
+		int width = 0, height = 0, planes = 0, mode = 0;
+		boolean compressed = false;
+
+		int colors[] = new int[0];
+		byte body[] = null;
+
+		while (data.remaining() >= 8) {
+			final int name = data.getInt();
+			final int size = data.getInt();
+			final int start = data.position();
+
+			switch (name) {
+			case 0x424d4844: // BMHD
+				width = data.getShort() & 0xffff;
+				height = data.getShort() & 0xffff;
+
+				data.getInt(); // position on screen X,Y
+				planes = data.get() & 0xff;
+
+				data.get(); // mask
+				compressed = data.get() == 1;
+				break;
+			case 0x434d4150: // CMAP
+				colors = new int[size / 3];
+
+				for (int i = 0; i < colors.length; i++)
+					colors[i] = ((data.get() & 0xff) << 16) | ((data.get() & 0xff) << 8) | (data.get() & 0xff);
+				break;
+			case 0x43414d47: // CAMG
+				mode = data.getInt();
+				break;
+			case 0x424f4459: // BODY
+				body = new byte[size];
+				data.get(body);
+				break;
+			}
+
+			data.position(start + size + (size & 1)); // padding
+		}
+
+		if (body == null || planes == 0)
+			throw new IOException("No picture in " + fileName);
+
+		final int length = (width >> 3) * planes * height;
+		final byte bitplanes[] = compressed ? RLECompression.decompress(body, length) : body;
+
+		if (bitplanes.length < length)
+			throw new IOException("Truncated picture in " + fileName);
+
+		final byte chunky[] = C2P.lineDeinterleaved(bitplanes, width, height, planes);
+
+		final BufferedImage image = Gfx.rgbImage(width, height);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		if ((mode & 0x800) == 0) {
+			for (int i = 0, p = 0; i < chunky.length; i++, p += 3)
+				Gfx.setPixel(pixels, p, colors[chunky[i] & 0xff]);
+
+			return image;
+		}
+
+		// hold and modify, two top bits select palette or changed component
+		final int bits = planes - 2;
+		final int mask = (1 << bits) - 1;
+
+		for (int y = 0, i = 0, p = 0; y < height; y++) {
+			int held = colors[0];
+
+			for (int x = 0; x < width; x++, i++, p += 3) {
+				final int code = chunky[i] & 0xff;
+				final int value = code & mask;
+
+				final int level = bits == 4 ? value | (value << 4) : (value << 2) | (value >> 4);
+
+				switch (code >> bits) {
+				case 0:
+					held = colors[value];
+					break;
+				case 1: // blue
+					held = (held & 0xffff00) | level;
+					break;
+				case 2: // red
+					held = (held & 0x00ffff) | (level << 16);
+					break;
+				default: // green
+					held = (held & 0xff00ff) | (level << 8);
+					break;
+				}
+
+				Gfx.setPixel(pixels, p, held);
+			}
+		}
+
+		return image;
+	}
+}
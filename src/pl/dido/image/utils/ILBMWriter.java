@@ -0,0 +1,134 @@
+package pl.dido.image.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ILBM file written chunk by chunk straight to file channel. Chunk and FORM sizes are patched when
+ * they end, BODY plane rows are compressed one by one into reused buffer, so memory of export does
+ * not depend on picture size.
+ */
+public class ILBMWriter implements Closeable {
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(8192); // big endian like IFF
+
+	private final ByteBuffer size = ByteBuffer.allocate(4);
+	private long chunk; // position of current chunk size
+
+	private byte row[] = new byte[0]; // compressed plane row
+
+	public ILBMWriter(final String fileName) throws IOException {
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		buffer.put("FORM".getBytes());
+		buffer.putInt(0); // patched on close
+		buffer.put("ILBM".getBytes()); // planar data
+	}
+
+	public void bitmapHeader(final int width, final int height, final int aspectX, final int aspectY,
+			final int bitplanes, final boolean compressed) throws IOException {
+		begin("BMHD");
+		write(IFF.getILBMHD(width, height, aspectX, aspectY, bitplanes, compressed));
+		end();
+	}
+
+	public void colorMap(final int palette[][]) throws IOException {
+		begin("CMAP");
+		write(IFF.getCMAP(palette));
+		end();
+	}
+
+	public void videoMode(final int mode) throws IOException {
+		begin("CAMG");
+		buffer.putInt(mode);
+		end();
+	}
+
+	// planar body from C2P, every plane row is compressed alone
+	public void body(final byte bitplanes[], final int width, final boolean compressed) throws IOException {
+		begin("BODY");
+
+		if (compressed) {
+			final int bytes = width >> 3; // row of one plane
+			if (row.length < bytes * 2)
+				row = new byte[bytes * 2];
+
+			for (int i = 0; i < bitplanes.length; i += bytes)
+				write(row, 0, RLECompression.compress(bitplanes, i, bytes, row, 0));
+		} else
+			write(bitplanes, 0, bitplanes.length);
+
+		end();
+	}
+
+	private void begin(final String name) throws IOException {
+		write(name.getBytes());
+
+		chunk = position();
+		buffer.putInt(0); // patched by end
+	}
+
+	private void end() throws IOException {
+		final long length = position() - chunk - 4;
+
+		patch(chunk, length);
+		if ((length & 1) == 1)
+			buffer.put((byte) 0); // padding
+	}
+
+	private long position() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	private void patch(final long position, final long value) throws IOException {
+		flush();
+
+		size.clear();
+		size.putInt((int) value).flip();
+
+		channel.write(size, position);
+	}
+
+	private void write(final byte data[]) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	private void write(final byte data[], final int offset, final int length) throws IOException {
+		if (length > buffer.remaining()) {
+			flush();
+
+			if (length > buffer.capacity()) { // no copy of large data
+				final ByteBuffer wrap = ByteBuffer.wrap(data, offset, length);
+				while (wrap.hasRemaining())
+					channel.write(wrap);
+
+				return;
+			}
+		}
+
+		buffer.put(data, offset, length);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			patch(4, position() - 8); // FORM size includes ILBM
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package pl.dido.image.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pl.dido.image.utils.Config.NEAREST_COLOR;
+
+/**
+ * Nearest palette color lookup table addressing quantized RGB cube (3 x bits).
+ * Cells are filled lazily on first access so only colors present in a picture are searched.
+ *
+ * In exact mode cell is resolved only when all lattice corners around it match the same
+ * palette entry. Euclidean and percepted distances differ linearly between two palette colors
+ * so every region of the nearest color is convex and whole cell shares that entry. Cells on
+ * the border keep list of palette entries which may be nearest to any point of the cell and
+ * search only them for the residual bits. Luma weighted matching is not convex, exact mode
+ * always uses full search for it.
+ */
+public class PaletteLUT {
+
+	private static final short EMPTY = -1;
+	private static final short SEARCH = -2;
+
+	private static final int REGISTRY_SIZE = 16;
+
+	// recently used tables, shared by all renderers and threads
+	private static final Map<Key, PaletteLUT> registry = new LinkedHashMap<Key, PaletteLUT>(REGISTRY_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, PaletteLUT> eldest) {
+			return size() > REGISTRY_SIZE;
+		}
+	};
+
+	private final int palette[][];
+	private final NEAREST_COLOR color;
+
+	private final int bits;
+	private final int shift;
+	private final boolean exact;
+
+	private final short cells[];
+	private final short corners[];
+	private final int side; // lattice points per axis
+
+	private final int candidates[][]; // palette entries of the border cells
+	private final int weights[]; // distance weights of components
+
+	public PaletteLUT(final int palette[][], final NEAREST_COLOR color, final int bits, final boolean exact) {
+		if (bits < 1 || bits > 8)
+			throw new IllegalArgumentException("Unsupported LUT bits: " + bits);
+
+		final int len = palette.length;
+		this.palette = new int[len][];
+
+		for (int i = 0; i < len; i++)
+			this.palette[i] = palette[i].clone();
+
+		this.color = color;
+
+		this.bits = bits;
+		this.shift = 8 - bits;
+		this.exact = exact && color != NEAREST_COLOR.LUMA_WEIGHTED;
+
+		cells = new short[1 << (3 * bits)];
+		Arrays.fill(cells, exact && !this.exact ? SEARCH : EMPTY);
+
+		if (this.exact) {
+			side = (1 << bits) + 1;
+			corners = new short[side * side * side];
+
+			Arrays.fill(corners, EMPTY);
+			candidates = new int[cells.length][];
+
+			// percepted distance weights are constant for colors within 0-255
+			weights = color == NEAREST_COLOR.PERCEPTED ? new int[] { 2, 4, 2 } : new int[] { 1, 1, 1 };
+		} else {
+			side = 0;
+			corners = null;
+
+			candidates = null;
+			weights = null;
+		}
+	}
+
+	public static PaletteLUT getInstance(final int palette[][], final NEAREST_COLOR color, final Config config) {
+		if (config.lut_bits == 0)
+			return null;
+
+		final Key key = new Key(palette, color, config.lut_bits, config.lut_exact);
+
+		synchronized (registry) {
+			PaletteLUT lut = registry.get(key);
+			if (lut == null) {
+				lut = new PaletteLUT(palette, color, config.lut_bits, config.lut_exact);
+				registry.put(key, lut);
+			}
+
+			return lut;
+		}
+	}
+
+	public final int getIndex(final int r, final int g, final int b) {
+		final int index = find(r, g, b);
+		return index >= 0 ? index : search(r, g, b);
+	}
+
+	// table entry or negative value when residual bits have to be searched
+	public final int find(final int r, final int g, final int b) {
+		if (((r | g | b) & ~0xff) != 0) // out of cube
+			return -1;
+
+		final int rc = r >> shift;
+		final int gc = g >> shift;
+		final int bc = b >> shift;
+
+		final int cell = (((rc << bits) | gc) << bits) | bc;
+		final int index = cells[cell];
+
+		return index == EMPTY ? fill(cell, rc, gc, bc) : index;
+	}
+
+	public final int search(final int r, final int g, final int b) {
+		if (candidates != null && ((r | g | b) & ~0xff) == 0) {
+			final int list[] = candidates[(((r >> shift << bits) | (g >> shift)) << bits) | (b >> shift)];
+
+			if (list != null)
+				return search(list, r, g, b);
+		}
+
+		return Gfx.getColorIndex(color, palette, r, g, b);
+	}
+
+	// same order and comparison as full palette search
+	private final int search(final int list[], final int r, final int g, final int b) {
+		int index = 0;
+		float min = Float.MAX_VALUE;
+
+		for (final int i : list) {
+			final int c[] = palette[i];
+			final float distance = color == NEAREST_COLOR.PERCEPTED
+					? Gfx.perceptedDistance(r, g, b, c[0], c[1], c[2])
+					: Gfx.euclideanDistance(r, g, b, c[0], c[1], c[2]);
+
+			if (distance < min) {
+				min = distance;
+				index = i;
+			}
+		}
+
+		return index;
+	}
+
+	// palette entries nearest to any point of the cell, highest index first
+	private final int[] candidates(final int rc, final int gc, final int bc) {
+		final int step = 1 << shift;
+
+		final int r0 = rc << shift, r1 = r0 + step - 1;
+		final int g0 = gc << shift, g1 = g0 + step - 1;
+		final int b0 = bc << shift, b1 = b0 + step - 1;
+
+		final int len = palette.length;
+		final int near[] = new int[len];
+
+		// upper bound of the nearest distance within the cell
+		int bound = Integer.MAX_VALUE;
+		for (int i = 0; i < len; i++) {
+			final int c[] = palette[i];
+
+			final int far = weights[0] * square(Math.max(Math.abs(c[0] - r0), Math.abs(c[0] - r1)))
+					+ weights[1] * square(Math.max(Math.abs(c[1] - g0), Math.abs(c[1] - g1)))
+					+ weights[2] * square(Math.max(Math.abs(c[2] - b0), Math.abs(c[2] - b1)));
+
+			near[i] = weights[0] * square(gap(c[0], r0, r1)) + weights[1] * square(gap(c[1], g0, g1))
+					+ weights[2] * square(gap(c[2], b0, b1));
+
+			if (far < bound)
+				bound = far;
+		}
+
+		final int list[] = new int[len];
+		int count = 0;
+
+		for (int i = len; i-- > 0;)
+			if (near[i] <= bound)
+				list[count++] = i;
+
+		return Arrays.copyOf(list, count);
+	}
+
+	private static final int gap(final int v, final int low, final int high) {
+		return v < low ? low - v : v > high ? v - high : 0;
+	}
+
+	private static final int square(final int v) {
+		return v * v;
+	}
+
+	private final int fill(final int cell, final int rc, final int gc, final int bc) {
+		final short index;
+
+		if (exact) {
+			final short c = corner(rc, gc, bc);
+
+			if (c == corner(rc + 1, gc, bc) && c == corner(rc, gc + 1, bc) && c == corner(rc + 1, gc + 1, bc)
+					&& c == corner(rc, gc, bc + 1) && c == corner(rc + 1, gc, bc + 1)
+					&& c == corner(rc, gc + 1, bc + 1) && c == corner(rc + 1, gc + 1, bc + 1))
+				index = c;
+			else {
+				candidates[cell] = candidates(rc, gc, bc);
+				index = SEARCH;
+			}
+		} else {
+			// center of the cell
+			final int half = (1 << shift) >> 1;
+			index = (short) Gfx.getColorIndex(color, palette, (rc << shift) + half, (gc << shift) + half,
+					(bc << shift) + half);
+		}
+
+		// concurrent fill writes the same value
+		cells[cell] = index;
+		return index;
+	}
+
+	private final short corner(final int rc, final int gc, final int bc) {
+		final int i = (rc * side + gc) * side + bc;
+		short index = corners[i];
+
+		if (index == EMPTY) {
+			index = (short) Gfx.getColorIndex(color, palette, lattice(rc), lattice(gc), lattice(bc));
+			corners[i] = index;
+		}
+
+		return index;
+	}
+
+	private final int lattice(final int c) {
+		final int v = c << shift;
+		return v > 255 ? 255 : v;
+	}
+
+	private static final class Key {
+		private final int data[];
+		private final int hash;
+
+		private Key(final int palette[][], final NEAREST_COLOR color, final int bits, final boolean exact) {
+			final int len = palette.length;
+			data = new int[len * 3 + 3];
+
+			int i = 0;
+			for (final int c[] : palette) {
+				data[i++] = c[0];
+				data[i++] = c[1];
+				data[i++] = c[2];
+			}
+
+			data[i++] = color.ordinal();
+			data[i++] = bits;
+			data[i] = exact ? 1 : 0;
+
+			hash = Arrays.hashCode(data);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Key && Arrays.equals(data, ((Key) obj).data);
+		}
+	}
+}
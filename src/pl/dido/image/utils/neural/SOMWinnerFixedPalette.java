@@ -18,41 +18,74 @@ public class SOMWinnerFixedPalette extends SOMFixedPalette {
 	}
 
 	@Override
-	protected void learn(final Position best, final float r, final float g, final float b) {
-		final float bmu[] = matrix[best.y][best.x];
+	protected void learn(final int best, final float r, final float g, final float b) {
+		final int n = best * 3;
 
-		bmu[0] += rate * (r - bmu[0]);
-		bmu[1] += rate * (g - bmu[1]);
-		bmu[2] += rate * (b - bmu[2]);
+		neurons[n] += rate * (r - neurons[n]);
+		neurons[n + 1] += rate * (g - neurons[n + 1]);
+		neurons[n + 2] += rate * (b - neurons[n + 2]);
 	}
-	
+
 	@Override
-	protected Position getBMU(final float red, final float green, final float blue) {
-		int bx = 0, by = 0;
+	protected void accumulate(final int best, final float r, final float g, final float b, final int weight) {
+		final int n = best * 3;
+
+		sums[n] += weight * r;
+		sums[n + 1] += weight * g;
+		sums[n + 2] += weight * b;
+
+		totals[best] += weight;
+	}
+
+	@Override
+	protected int getFullBMU(final float red, final float green, final float blue) {
+		int best = 0;
 		float min = Float.MAX_VALUE;
 
-		for (int y = 0; y < height; y++) {
-			final float line[][] = matrix[y];
+		for (int i = 0, n = 0; i < size; i++, n += 3) {
+			// percepted
+			final float d = Gfx.perceptedDistance(red, green, blue, neurons[n], neurons[n + 1], neurons[n + 2]);
+
+			if (d < min) {
+				min = d;
+				best = i;
+			}
+		}
+
+		return best;
+	}
+
+	// same terms and order as Gfx.perceptedDistance
+	@Override
+	protected int getPartialBMU(final float red, final float green, final float blue) {
+		int best = 0;
+		float min = Float.MAX_VALUE;
+
+		for (int i = 0, n = 0; i < size; i++, n += 3) {
+			final float pr = neurons[n];
+			final float rpr = red - pr;
+
+			final float delta = (red + pr) / 2;
+			final float dr = (2 + (delta / 256)) * rpr * rpr;
 
-			for (int x = 0; x < width; x++) {
-				final float row[] = line[x];
+			if (dr >= min)
+				continue;
 
-				final float r = row[0];
-				final float g = row[1];
-				final float b = row[2];
+			final float gpg = green - neurons[n + 1];
+			final float d = dr + (4 * (gpg * gpg));
 
-				// simple euclidean
-				final float d = Gfx.perceptedDistance(red, green, blue, r, g, b);
+			if (d >= min)
+				continue;
 
-				if (d < min) {
-					min = d;
+			final float bpb = blue - neurons[n + 2];
+			final float e = d + ((2 + (255 - delta) / 256) * bpb * bpb);
 
-					bx = x;
-					by = y;
-				}
+			if (e < min) {
+				min = e;
+				best = i;
 			}
 		}
 
-		return new Position(bx, by);
+		return best;
 	}
 }
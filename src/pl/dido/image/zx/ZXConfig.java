@@ -3,6 +3,8 @@ package pl.dido.image.zx;
 import pl.dido.image.utils.Config;
 
 public class ZXConfig extends Config {
+
+	public boolean optimal_pair; // ink, paper and bright by exhaustive search
 	
 	public ZXConfig() {
 		super();
@@ -13,6 +15,7 @@ public class ZXConfig extends Config {
 		highContrast = HIGH_CONTRAST.SWAHE;
 		
 		windowSize = 20;
+		optimal_pair = false;
 	}
 
 	@Override
@@ -4,10 +4,14 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -18,6 +22,7 @@ import javax.swing.KeyStroke;
 import pl.dido.image.renderer.AbstractRenderer;
 import pl.dido.image.renderer.AbstractRendererRunner;
 import pl.dido.image.utils.Config;
+import pl.dido.image.utils.Gfx;
 import pl.dido.image.utils.Utils;
 
 public class ZXRunner extends AbstractRendererRunner {
@@ -26,22 +31,56 @@ public class ZXRunner extends AbstractRendererRunner {
 
 	public ZXRunner(final AbstractRenderer renderer, final String fileName) {
 		super(renderer, fileName);
-		zx = (ZXSpectrumRenderer) zx;
+		zx = (ZXSpectrumRenderer) renderer;
 	}
 
-	private void hiresExport(final String fileName) {
-		try {
-			final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+	public static void hiresExport(final ZXSpectrumRenderer zx, final String fileName) throws IOException {
+		final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(fileName)), 8192);
+
+		// bitmap
+		for (int i = 0; i < zx.bitmap.length; i++)
+			out.write(zx.bitmap[i] & 0xff);
+
+		// attributes
+		for (int i = 0; i < zx.attribs.length; i++)
+			out.write(zx.attribs[i] & 0xff);
+
+		out.close();
+	}
+
+	public static BufferedImage hiresImport(final String fileName) throws IOException {
+		final byte data[] = Files.readAllBytes(Paths.get(fileName));
+		if (data.length < 6912)
+			throw new IOException("Not a screen: " + fileName);
+
+		final BufferedImage image = Gfx.rgbImage(256, 192);
+		final byte pixels[] = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		for (int y = 0; y < 192; y++) {
+			// screen thirds of 8 rows, line of cell is the high byte of address
+			final int address = (y >> 6) * 2048 + (y & 7) * 256 + ((y >> 3) & 7) * 32;
 
-			// bitmap
-			for (int i = 0; i < zx.bitmap.length; i++)
-				out.write(zx.bitmap[i] & 0xff);
+			for (int x = 0; x < 32; x++) {
+				final int attrib = data[6144 + (y >> 3) * 32 + x] & 0xff;
+				final int bright = (attrib >> 6) & 1;
 
-			// attributes
-			for (int i = 0; i < zx.attribs.length; i++)
-				out.write(zx.attribs[i] & 0xff);
+				final int ink = ZXSpectrumRenderer.colors[((attrib & 0x7) << 1) | bright];
+				final int paper = ZXSpectrumRenderer.colors[(((attrib >> 3) & 0x7) << 1) | bright];
 
-			out.close();
+				final int bits = data[address + x] & 0xff;
+				final int p = (y * 256 + (x << 3)) * 3;
+
+				for (int x0 = 0; x0 < 8; x0++)
+					Gfx.setPixel(pixels, p + x0 * 3, (bits & (0x80 >> x0)) != 0 ? ink : paper);
+			}
+		}
+
+		return image;
+	}
+
+	private void hiresExport(final String fileName) {
+		try {
+			hiresExport(zx, fileName);
 			frame.setTitle(frame.getTitle() + " SAVED");
 		} catch (final IOException e) {
 			e.printStackTrace();
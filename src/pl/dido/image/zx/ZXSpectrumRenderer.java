@@ -3,44 +3,97 @@ package pl.dido.image.zx;
 import java.awt.image.BufferedImage;
 
 import pl.dido.image.renderer.AbstractRenderer;
+import pl.dido.image.utils.Config.NEAREST_COLOR;
+import pl.dido.image.utils.ErrorDiffusion;
 import pl.dido.image.utils.Gfx;
+import pl.dido.image.utils.Parallel;
 
 public class ZXSpectrumRenderer extends AbstractRenderer {
 
 	// ZX spectrum palette
-	private final static int colors[] = new int[] { 0x000000, 0x000000, 0x0000D7, 0x0000FF, 0xD70000, 0xFF0000,
+	protected final static int colors[] = new int[] { 0x000000, 0x000000, 0x0000D7, 0x0000FF, 0xD70000, 0xFF0000,
 			0xD700D7, 0xFF00FF, 0x00D700, 0x00FF00, 0x00D7D7, 0x00FFFF, 0xD7D700, 0xFFFF00, 0xD7D7D7, 0xFFFFFF };
 
+	// palette indexes of normal and bright colors
+	private final static int bright[][] = new int[][] { { 0, 2, 4, 6, 8, 10, 12, 14 }, { 1, 3, 5, 7, 9, 11, 13, 15 } };
+
+	// component levels of normal and bright colors
+	private final static int levels[] = new int[] { 0xD7, 0xFF };
+
+	// both distances are sums of component terms and every component of ZX color is 0 or level of its
+	// half, terms of value to 0 and both levels give distances to all colors, [percepted][level][component][value]
+	private final static int componentTerms[][][][] = new int[2][3][3][256];
+
+	// nearer of 0 and level term and difference between them, [percepted][half][component][value]
+	private final static int nearTerms[][][][] = new int[2][2][3][256];
+	private final static int termGaps[][][][] = new int[2][2][3][256];
+
+	static {
+		// delta of percepted distance never reaches 256 for 8 bit components
+		final int weights[][] = new int[][] { { 1, 1, 1 }, { 2, 4, 2 } };
+
+		for (int p = 0; p < 2; p++)
+			for (int c = 0; c < 3; c++)
+				for (int v = 0; v < 256; v++) {
+					final int t0 = weights[p][c] * v * v;
+					componentTerms[p][0][c][v] = t0;
+
+					for (int half = 0; half < 2; half++) {
+						final int d = v - levels[half];
+						final int t1 = weights[p][c] * d * d;
+
+						componentTerms[p][1 + half][c][v] = t1;
+						nearTerms[p][half][c][v] = Math.min(t0, t1);
+						termGaps[p][half][c][v] = Math.abs(t1 - t0);
+					}
+				}
+	}
+
+	// red, green, blue terms of every color and tables of color algorithm
+	private final int colorTerms[][][] = new int[16][][];
+	private final int near[][][];
+	private final int gap[][][];
+
 	protected int attribs[] = new int[768];
 	protected int bitmap[] = new int[32 * 192];
 
-	protected int zx_line = 0;
-	protected int zx_position = 0;
+	// bitmap address of every byte in cell order, 8 lines of cell after cell
+	private final static int addresses[] = new int[32 * 192];
+
+	static {
+		for (int i = 0; i < addresses.length; i++) {
+			final int cell = i >> 3;
+			final int line = i & 7;
+
+			// screen thirds of 8 rows, line of cell is the high byte of address
+			addresses[i] = (cell >> 8) * 2048 + line * 256 + (cell & 0xff);
+		}
+	}
 
 	public ZXSpectrumRenderer(final BufferedImage image, final ZXConfig config) {
 		super(image, config);
 		palette = new int[16][3];
+
+		final int alg = colorAlg == NEAREST_COLOR.PERCEPTED ? 1 : 0; // others are euclidean here
+		final int terms[][][] = componentTerms[alg];
+
+		near = nearTerms[alg];
+		gap = termGaps[alg];
+
+		// color index is green, red, blue bits and bright bit
+		for (int i = 0; i < 16; i++) {
+			final int level = 1 + (i & 1);
+			colorTerms[i] = new int[][] { terms[(i & 4) != 0 ? level : 0][0], terms[(i & 8) != 0 ? level : 0][1],
+					terms[(i & 2) != 0 ? level : 0][2] };
+		}
 	}
 
 	@Override
 	protected void setupPalette() {
-		switch (image.getType()) {
-		case BufferedImage.TYPE_3BYTE_BGR:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = (colors[i] & 0x0000ff); // blue
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = (colors[i] & 0xff0000) >> 16; // red
-			}
-			break;
-		case BufferedImage.TYPE_INT_RGB:
-			for (int i = 0; i < colors.length; i++) {
-				palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
-				palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
-				palette[i][2] = (colors[i] & 0x0000ff); // blue
-			}
-			break;
-		default:
-			throw new RuntimeException("Unsupported Pixel format !!!");
+		for (int i = 0; i < colors.length; i++) {
+			palette[i][0] = (colors[i] & 0xff0000) >> 16; // red
+			palette[i][1] = (colors[i] & 0x00ff00) >> 8; // green
+			palette[i][2] = (colors[i] & 0x0000ff); // blue
 		}
 	}
 
@@ -50,181 +103,247 @@ public class ZXSpectrumRenderer extends AbstractRenderer {
 	}
 
 	protected void hiresLumaDithered() {
-		final int work[] = new int[256 * 192 * 3];
-		int bitmapIndex = 0;
-
-		for (int y = 0; y < 192; y += 8) { // every 8 line
-			final int p = y * 256 * 3;
+		// cells are independent, each one writes its own bitmap bytes and attribute
+		Parallel.forRange(0, 768, config.parallel, new Parallel.Range() {
+			public void run(final int from, final int to) {
+				final int work[] = new int[64 * 3];
+				final boolean optimal = ((ZXConfig) config).optimal_pair;
+				final ErrorDiffusion diffusion = new ErrorDiffusion(config.dithering ? config.dither_alg : null, palette, 8, 8, false);
+
+				for (int cell = from; cell < to; cell++)
+					hiresCell(cell, work, optimal, diffusion);
+			}
+		});
+	}
 
-			for (int x = 0; x < 256; x += 8) { // every 8 pixel
-				final int offset = p + x * 3;
+	protected void hiresCell(final int cell, final int work[], final boolean optimal, final ErrorDiffusion diffusion) {
+		final int y = (cell >> 5) << 3;
+		final int x = (cell & 31) << 3;
 
-				int min = 0;
-				int max = 0;
+		final int offset = (y * 256 + x) * 3;
+		final int bitmapIndex = cell << 3;
 
-				int f = 0, n = 0;
-				int rf = 0, gf = 0, bf = 0, rb = 0, gb = 0, bb = 0;
+		final int colors = cellColors(cell, work, optimal);
 
-				// 8x8 tile
-				for (int y0 = 0; y0 < 8; y0 += 1) {
-					for (int x0 = 0; x0 < 24; x0 += 3) {
-						final int position = offset + y0 * 256 * 3 + x0;
+		// both colors of the cell share bright bit
+		final int bright = (colors | (colors >> 8)) & 1;
 
-						final int r = pixels[position] & 0xff;
-						final int g = pixels[position + 1] & 0xff;
-						final int b = pixels[position + 2] & 0xff;
+		final int f = (colors >> 8) & 0xfe | bright;
+		final int n = colors & 0xfe | bright;
 
-						work[position] = r;
-						work[position + 1] = g;
-						work[position + 2] = b;
+		final int ink = f >> 1;
+		final int paper = n >> 1;
 
-						final float luma = Gfx.getLumaByCM(colorModel, r, g, b);
+		attribs[cell] = ((paper & 0xf) << 3) | (ink & 0x7) | (bright << 6);
 
-						if (luma >= 128) {
-							rf += r;
-							gf += g;
-							bf += b;
+		final int cf[] = palette[f];
+		final int cn[] = palette[n];
 
-							max += 1;
-						}
+		diffusion.dither(pixels, offset, 256 * 3, x, y, new ErrorDiffusion.Quantizer() {
+			public int quantize(final int x, final int y, final int r, final int g, final int b) {
+				final float d1 = Gfx.getDistance(colorAlg, r, g, b, cf[0], cf[1], cf[2]);
+				final float d2 = Gfx.getDistance(colorAlg, r, g, b, cn[0], cn[1], cn[2]);
 
-						if (luma < 128) {
-							rb += r;
-							gb += g;
-							bb += b;
+				final int address = addresses[bitmapIndex + y];
+				if (x == 0)
+					bitmap[address] = 0;
 
-							min++;
-						}
-					}
-				}
-				
-				if (max > 0) {
-					rf /= max;
-					gf /= max;
-					bf /= max;
+				if (d1 < d2) {
+					bitmap[address] |= 0x80 >> x;
+					return ErrorDiffusion.color(cf);
 				}
 
-				if (min > 0) {
-					rb /= min;
-					gb /= min;
-					bb /= min;
-				}
-
-				f = getColorIndex(rf, gf, bf);
-				n = getColorIndex(rb, gb, bb);
+				return ErrorDiffusion.color(cn);
+			}
+		});
+	}
 
-				final int address = (y >> 3) * 32 + (x >> 3);
+	// ink and paper of the cell, averages of bright and dark pixels or optimal pair
+	protected int cellColors(final int cell, final int tile[], final boolean optimal) {
+		final int y = (cell >> 5) << 3;
+		final int x = (cell & 31) << 3;
 
-				int ink = f >> 1;
-				int paper = n >> 1;
-				int bright = (f % 1 | n % 1) << 6;
+		final int offset = (y * 256 + x) * 3;
+		int index = 0;
 
-				attribs[address] = ((paper & 0xf) << 3) | (ink & 0x7) | bright;
+		int min = 0;
+		int max = 0;
 
-				int value = 0, bitcount = 0;
+		int rf = 0, gf = 0, bf = 0, rb = 0, gb = 0, bb = 0;
 
-				for (int y0 = 0; y0 < 8; y0++) {
-					final int k0 = offset + y0 * 256 * 3;
+		// 8x8 tile
+		for (int y0 = 0; y0 < 8; y0 += 1) {
+			for (int x0 = 0; x0 < 24; x0 += 3) {
+				final int position = offset + y0 * 256 * 3 + x0;
 
-					final int k1 = offset + (y0 + 1) * 256 * 3;
-					final int k2 = offset + (y0 + 2) * 256 * 3;
+				final int r = pixels[position] & 0xff;
+				final int g = pixels[position + 1] & 0xff;
+				final int b = pixels[position + 2] & 0xff;
 
-					for (int x0 = 0; x0 < 8 * 3; x0 += 3) {
-						final int pyx0 = k0 + x0;
+				tile[index++] = r;
+				tile[index++] = g;
+				tile[index++] = b;
 
-						final int py1x0 = k1 + x0;
-						final int py2x0 = k2 + x0;
+				if (optimal) // pair search needs pixels only
+					continue;
 
-						final int r = Gfx.saturate(work[pyx0]);
-						final int g = Gfx.saturate(work[pyx0 + 1]);
-						final int b = Gfx.saturate(work[pyx0 + 2]);
+				final float luma = Gfx.getLuma(r, g, b);
 
-						final int fr = palette[f][0];
-						final int fg = palette[f][1];
-						final int fb = palette[f][2];
+				if (luma >= 128) {
+					rf += r;
+					gf += g;
+					bf += b;
 
-						int nr = palette[n][0];
-						int ng = palette[n][1];
-						int nb = palette[n][2];
+					max += 1;
+				}
 
-						final float d1 = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, fr, fg, fb);
-						final float d2 = Gfx.getDistanceByCM(colorAlg, colorModel, r, g, b, nr, ng, nb);
+				if (luma < 128) {
+					rb += r;
+					gb += g;
+					bb += b;
 
-						if (d1 < d2) {
-							nr = fr;
-							ng = fg;
-							nb = fb;
+					min++;
+				}
+			}
+		}
 
-							value = (value << 1) | 1;
-						} else
-							value = value << 1;
+		if (optimal)
+			return optimalColors(tile);
 
-						if (bitcount % 8 == 7) {
-							bitmap[translate(bitmapIndex++)] = value;
-							value = 0;
-						}
+		if (max > 0) {
+			rf /= max;
+			gf /= max;
+			bf /= max;
+		}
 
-						bitcount += 1;
+		if (min > 0) {
+			rb /= min;
+			gb /= min;
+			bb /= min;
+		}
 
-						pixels[pyx0] = (byte) nr;
-						pixels[pyx0 + 1] = (byte) ng;
-						pixels[pyx0 + 2] = (byte) nb;
+		return (getColorIndex(rf, gf, bf) << 8) | getColorIndex(rb, gb, bb);
+	}
 
-						if (config.dithering) {
-							final int r_error = r - nr;
-							final int g_error = g - ng;
-							final int b_error = b - nb;
+	// both colors of the cell share bright bit, least error pair of normal then bright colors
+	protected int optimalColors(final int tile[]) {
+		// pixel whose nearest color is out of the pair costs at least its second nearest distance, so
+		// bound of pair is sum of second nearest distances less gaps of pixels nearest to pair colors
+		final int gaps[] = new int[16];
+		final int bounds[] = new int[2];
+
+		pairBounds(tile, gaps, bounds);
+
+		// pair of least bound first, then every pair which can still be better, ties keep pair order
+		int best = 0;
+		int order = 0;
+		int bound = Integer.MAX_VALUE;
+
+		for (int half = 0, k = 0; half < 2; half++) {
+			final int candidates[] = bright[half];
+
+			for (int i = 0; i < 7; i++)
+				for (int j = i + 1; j < 8; j++, k++) {
+					final int a = candidates[i];
+					final int b = candidates[j];
+					final int pb = bounds[half] - gaps[a] - gaps[b];
+
+					if (pb < bound) {
+						bound = pb;
+						best = (a << 8) | b;
+						order = k;
+					}
+				}
+		}
 
-							if (x0 < 9) {
-								work[pyx0 + 3] += r_error >> 3;
-								work[pyx0 + 3 + 1] += g_error >> 3;
-								work[pyx0 + 3 + 2] += b_error >> 3;
+		int error = pairError(tile, best >> 8, best & 0xff, Integer.MAX_VALUE);
 
-								if (x0 < 6) {
-									work[pyx0 + 6] += r_error >> 3;
-									work[pyx0 + 6 + 1] += g_error >> 3;
-									work[pyx0 + 6 + 2] += b_error >> 3;
-								}
-							}
-							if (y0 < 7) {
-								work[py1x0 - 3] += r_error >> 3;
-								work[py1x0 - 3 + 1] += g_error >> 3;
-								work[py1x0 - 3 + 2] += b_error >> 3;
+		for (int half = 0, k = 0; half < 2; half++) {
+			final int candidates[] = bright[half];
 
-								work[py1x0] += r_error >> 3;
-								work[py1x0 + 1] += g_error >> 3;
-								work[py1x0 + 2] += b_error >> 3;
+			for (int i = 0; i < 7; i++)
+				for (int j = i + 1; j < 8; j++, k++) {
+					final int a = candidates[i];
+					final int b = candidates[j];
 
-								if (x0 < 9) {
-									work[py1x0 + 3] += r_error >> 3;
-									work[py1x0 + 3 + 1] += g_error >> 3;
-									work[py1x0 + 3 + 2] += b_error >> 3;
-								}
+					// earlier pair wins ties
+					final int limit = k < order ? error : error - 1;
+					if (k == order || bounds[half] - gaps[a] - gaps[b] > limit)
+						continue;
 
-								if (y0 < 6) {
-									work[py2x0] += r_error >> 3;
-									work[py2x0 + 1] += g_error >> 3;
-									work[py2x0 + 2] += b_error >> 3;
-								}
-							}
-						}
+					final int e = pairError(tile, a, b, limit);
+					if (e <= limit) {
+						error = e;
+						best = (a << 8) | b;
+						order = k;
 					}
 				}
-			}
 		}
+
+		int f = best >> 8;
+		int n = best & 0xff;
+
+		// brighter one as ink
+		if (luma(f) < luma(n)) {
+			final int t = f;
+
+			f = n;
+			n = t;
+		}
+
+		return (f << 8) | n;
 	}
 
-	private int translate(final int address) {
-		final int base = (address & 0b1100000000000) >>> 11;
-		final int zx_address = base * 2048 + zx_line * 256 + zx_position;
+	// error of pair when every pixel takes nearer color, stops once it is over limit
+	private final int pairError(final int tile[], final int a, final int b, final int limit) {
+		final int ta[][] = colorTerms[a];
+		final int tb[][] = colorTerms[b];
+
+		final int ra[] = ta[0], ga[] = ta[1], ba[] = ta[2];
+		final int rb[] = tb[0], gb[] = tb[1], bb[] = tb[2];
+
+		int error = 0;
+		for (int p = 0; p < 192 && error <= limit; p += 8 * 3)
+			for (int k = p; k < p + 8 * 3; k += 3) {
+				final int pr = tile[k];
+				final int pg = tile[k + 1];
+				final int pb = tile[k + 2];
+
+				error += Math.min(ra[pr] + ga[pg] + ba[pb], rb[pr] + gb[pg] + bb[pb]);
+			}
+
+		return error;
+	}
 
-		if (++zx_line % 8 == 0) {
-			zx_line = 0;
+	// nearest color takes nearer term of every component and second nearest differs from it by the
+	// least component gap, gaps are summed per nearest color and second nearest distances per half
+	protected void pairBounds(final int tile[], final int gaps[], final int bounds[]) {
+		for (int half = 0; half < 2; half++) {
+			final int level = levels[half];
 
-			if (++zx_position % 256 == 0)
-				zx_position = 0;
+			final int nr[] = near[half][0], ng[] = near[half][1], nb[] = near[half][2];
+			final int gr[] = gap[half][0], gg[] = gap[half][1], gb[] = gap[half][2];
+
+			int sum = 0;
+
+			for (int k = 0; k < 192; k += 3) {
+				final int r = tile[k];
+				final int g = tile[k + 1];
+				final int b = tile[k + 2];
+
+				final int least = Math.min(gr[r], Math.min(gg[g], gb[b]));
+
+				// level term is nearer over half of level, color index is green, red, blue bits and bright bit
+				gaps[((r << 1) > level ? 4 : 0) | ((g << 1) > level ? 8 : 0) | ((b << 1) > level ? 2 : 0) | half] += least;
+				sum += nr[r] + ng[g] + nb[b] + least;
+			}
+
+			bounds[half] = sum;
 		}
+	}
 
-		return zx_address;
+	private final float luma(final int color) {
+		final int c[] = palette[color];
+		return Gfx.getLuma(c[0], c[1], c[2]);
 	}
 }
\ No newline at end of file